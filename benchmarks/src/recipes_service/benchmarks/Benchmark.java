@@ -0,0 +1,99 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+/**
+ * A benchmark of an operation of a data structure, run by BenchmarkRunner
+ * for each combination of number of participants and log size.
+ * 
+ * setUp prepares the state (not measured) and invoke performs the measured
+ * operation once. Benchmarks whose operation consumes its state (e.g. purging
+ * the log) prepare it again before each invocation with prepareInvocation;
+ * those invocations are timed one by one.
+ */
+public abstract class Benchmark {
+	private final String suite;
+	private final String name;
+
+	protected Benchmark(String suite, String name){
+		this.suite = suite;
+		this.name = name;
+	}
+
+	/**
+	 * @return name of the benchmark (suite.operation)
+	 */
+	public String getName(){
+		return suite + "." + name;
+	}
+
+	/**
+	 * @return false if the measured operation doesn't depend on the number of participants
+	 * (it is measured only for the first number of participants requested)
+	 */
+	public boolean dependsOnParticipants(){
+		return true;
+	}
+
+	/**
+	 * @return false if the measured operation doesn't depend on the log size
+	 * (it is measured only for the first log size requested)
+	 */
+	public boolean dependsOnLogSize(){
+		return true;
+	}
+
+	/**
+	 * Prepares the state of the benchmark. Called before each iteration (not measured)
+	 * @param participants: number of participants
+	 * @param logSize: number of operations in the log (and recipes)
+	 */
+	public abstract void setUp(int participants, int logSize);
+
+	/**
+	 * @return true if prepareInvocation has to be called before each invocation
+	 */
+	public boolean preparesInvocations(){
+		return false;
+	}
+
+	/**
+	 * Prepares the state for the next invocation (not measured)
+	 */
+	public void prepareInvocation(){
+	}
+
+	/**
+	 * @return a size obtained with the measured operation (e.g. bytes of the
+	 * messages it encodes), reported along with its time; -1 if there is none.
+	 * Called after the measurement iterations
+	 */
+	public long size(){
+		return -1;
+	}
+
+	/**
+	 * Performs the measured operation once
+	 * @return a value obtained from the result of the operation
+	 * (accumulated by the runner so that the operation is not optimized away)
+	 */
+	public abstract long invoke();
+}
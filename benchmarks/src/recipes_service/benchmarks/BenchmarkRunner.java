@@ -0,0 +1,295 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks of the TSAE data structures and writes the results
+ * in a JSON file (in the format of JMH results, so the same tools can be
+ * used to compare them).
+ * 
+ * Each benchmark is run for each combination of number of participants and
+ * log size: some warmup iterations followed by the measurement iterations,
+ * each one invoking the operation during a fixed time. The score is the
+ * average time per operation (ns/op) and its error the half-width of the
+ * 99.9% confidence interval over the measurement iterations. Benchmarks
+ * that measure a size (e.g. of encoded messages) report it too, as a
+ * secondary metric.
+ * 
+ * Arguments (all optional):
+ * -o <file>: results file (default: benchmarks.json)
+ * -participants <n1,n2,...>: numbers of participants (default: 5,50,500)
+ * -logSize <n1,n2,...>: log sizes (default: 1000,10000,100000)
+ * -wi <n>: warmup iterations (default: 3)
+ * -i <n>: measurement iterations (default: 5)
+ * -time <ms>: duration of each iteration (default: 1000)
+ * -b <regex>: only the benchmarks whose name (e.g. Log.add) matches regex
+ */
+public class BenchmarkRunner {
+	// two-sided 99.9% quantiles of Student's t distribution for 1..20 degrees of freedom
+	private static final double[] T_999 = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+		4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850};
+	// (normal approximation for more degrees of freedom)
+	private static final double Z_999 = 3.291;
+
+	// results of the invocations (so that they are not optimized away)
+	private static volatile long sink;
+
+	private String output = "benchmarks.json";
+	private int[] participants = {5, 50, 500};
+	private int[] logSizes = {1000, 10000, 100000};
+	private int warmupIterations = 3;
+	private int iterations = 5;
+	private long iterationTime = 1000;
+	private Pattern filter = null;
+
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		try {
+			runner.parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println("BenchmarkRunner: " + e.getMessage());
+			System.exit(1);
+		}
+		try {
+			runner.run(benchmarks());
+		} catch (IOException e) {
+			System.err.println("BenchmarkRunner: unable to write results: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * @return all the benchmarks
+	 */
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(LogBenchmarks.benchmarks());
+		benchmarks.addAll(LogContentionBenchmarks.benchmarks());
+		benchmarks.addAll(LogStoreBenchmarks.benchmarks());
+		benchmarks.addAll(TimestampVectorBenchmarks.benchmarks());
+		benchmarks.addAll(TimestampMatrixBenchmarks.benchmarks());
+		benchmarks.addAll(RecipesBenchmarks.benchmarks());
+		benchmarks.addAll(CodecBenchmarks.benchmarks());
+		return benchmarks;
+	}
+
+	private void parseArgs(String[] args){
+		for (int i = 0; i < args.length; i++){
+			if (i + 1 == args.length){
+				throw new IllegalArgumentException("missing value of " + args[i]);
+			}
+			String value = args[++i];
+			if (args[i-1].equals("-o")){
+				output = value;
+			} else if (args[i-1].equals("-participants")){
+				participants = parseList(value);
+			} else if (args[i-1].equals("-logSize")){
+				logSizes = parseList(value);
+			} else if (args[i-1].equals("-wi")){
+				warmupIterations = Integer.parseInt(value);
+			} else if (args[i-1].equals("-i")){
+				iterations = Integer.parseInt(value);
+			} else if (args[i-1].equals("-time")){
+				iterationTime = Long.parseLong(value);
+			} else if (args[i-1].equals("-b")){
+				filter = Pattern.compile(value);
+			} else {
+				throw new IllegalArgumentException("unknown argument " + args[i-1]);
+			}
+		}
+		if (iterations < 1){
+			throw new IllegalArgumentException("at least one measurement iteration is required");
+		}
+	}
+
+	private static int[] parseList(String value){
+		String[] items = value.split(",");
+		int[] list = new int[items.length];
+		for (int i = 0; i < items.length; i++){
+			list[i] = Integer.parseInt(items[i].trim());
+		}
+		return list;
+	}
+
+	private void run(List<Benchmark> benchmarks) throws IOException{
+		StringBuilder json = new StringBuilder("[\n");
+		boolean first = true;
+		for (Benchmark benchmark : benchmarks){
+			if (filter != null && !filter.matcher(benchmark.getName()).find()){
+				continue;
+			}
+			int numParticipants = benchmark.dependsOnParticipants() ? participants.length : 1;
+			int numLogSizes = benchmark.dependsOnLogSize() ? logSizes.length : 1;
+			for (int p = 0; p < numParticipants; p++){
+				for (int s = 0; s < numLogSizes; s++){
+					double[] scores = measure(benchmark, participants[p], logSizes[s]);
+					double score = mean(scores);
+					double error = error(scores);
+					long size = benchmark.size();
+					System.out.println(String.format(Locale.ROOT, "%-36s participants: %4d  logSize: %7d  %14.1f +- %.1f ns/op%s",
+							benchmark.getName(), participants[p], logSizes[s], score, error, size < 0 ? "" : "  size: " + size + " bytes"));
+					if (!first){
+						json.append(",\n");
+					}
+					first = false;
+					json.append(result(benchmark, participants[p], logSizes[s], scores, score, error, size));
+				}
+			}
+		}
+		json.append("\n]\n");
+
+		Writer writer = new FileWriter(output);
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+		System.out.println("Results written to " + output);
+	}
+
+	/**
+	 * @return score (ns/op) of each measurement iteration
+	 */
+	private double[] measure(Benchmark benchmark, int numParticipants, int logSize){
+		for (int i = 0; i < warmupIterations; i++){
+			iteration(benchmark, numParticipants, logSize);
+		}
+		double[] scores = new double[iterations];
+		for (int i = 0; i < iterations; i++){
+			scores[i] = iteration(benchmark, numParticipants, logSize);
+		}
+		return scores;
+	}
+
+	/**
+	 * Invokes the operation of benchmark during iterationTime milliseconds
+	 * @return average time per operation (ns)
+	 */
+	private double iteration(Benchmark benchmark, int numParticipants, int logSize){
+		benchmark.setUp(numParticipants, logSize);
+		long duration = iterationTime * 1000000L;
+		long operations = 0;
+		long elapsed = 0;
+		long result = 0;
+		if (benchmark.preparesInvocations()){
+			// each invocation timed on its own (preparation excluded); preparations
+			// can be much slower than invocations: the iteration ends anyway when
+			// ten times its duration has passed
+			long end = System.nanoTime() + 10 * duration;
+			do {
+				benchmark.prepareInvocation();
+				long start = System.nanoTime();
+				result += benchmark.invoke();
+				elapsed += System.nanoTime() - start;
+				operations++;
+			} while (elapsed < duration && System.nanoTime() < end);
+		} else {
+			long start = System.nanoTime();
+			do {
+				for (int i = 0; i < 16; i++){
+					result += benchmark.invoke();
+				}
+				operations += 16;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < duration);
+		}
+		sink += result;
+		return (double) elapsed / operations;
+	}
+
+	private static double mean(double[] values){
+		double sum = 0;
+		for (double value : values){
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * @return half-width of the 99.9% confidence interval of the mean of values
+	 * (NaN if there is only one value)
+	 */
+	private static double error(double[] values){
+		int n = values.length;
+		if (n < 2){
+			return Double.NaN;
+		}
+		double mean = mean(values);
+		double sum = 0;
+		for (double value : values){
+			sum += (value - mean) * (value - mean);
+		}
+		double deviation = Math.sqrt(sum / (n - 1));
+		double t = (n - 1 <= T_999.length) ? T_999[n - 2] : Z_999;
+		return t * deviation / Math.sqrt(n);
+	}
+
+	private String result(Benchmark benchmark, int numParticipants, int logSize, double[] scores, double score, double error, long size){
+		StringBuilder json = new StringBuilder();
+		json.append("  {\n");
+		json.append("    \"benchmark\": \"").append(getClass().getPackage().getName()).append('.').append(benchmark.getName()).append("\",\n");
+		json.append("    \"mode\": \"avgt\",\n");
+		json.append("    \"warmupIterations\": ").append(warmupIterations).append(",\n");
+		json.append("    \"warmupTime\": \"").append(iterationTime).append(" ms\",\n");
+		json.append("    \"measurementIterations\": ").append(iterations).append(",\n");
+		json.append("    \"measurementTime\": \"").append(iterationTime).append(" ms\",\n");
+		json.append("    \"params\": {");
+		boolean params = false;
+		if (benchmark.dependsOnParticipants()){
+			json.append("\"participants\": \"").append(numParticipants).append('"');
+			params = true;
+		}
+		if (benchmark.dependsOnLogSize()){
+			json.append(params ? ", " : "").append("\"logSize\": \"").append(logSize).append('"');
+		}
+		json.append("},\n");
+		json.append("    \"primaryMetric\": {\n");
+		json.append("      \"score\": ").append(number(score)).append(",\n");
+		json.append("      \"scoreError\": ").append(number(error)).append(",\n");
+		json.append("      \"scoreUnit\": \"ns/op\",\n");
+		json.append("      \"rawData\": [[");
+		for (int i = 0; i < scores.length; i++){
+			json.append(i > 0 ? ", " : "").append(number(scores[i]));
+		}
+		json.append("]]\n");
+		json.append("    }");
+		if (size >= 0){
+			json.append(",\n");
+			json.append("    \"secondaryMetrics\": {\n");
+			json.append("      \"size\": {\"score\": ").append(size).append(", \"scoreUnit\": \"bytes\"}\n");
+			json.append("    }");
+		}
+		json.append("\n  }");
+		return json.toString();
+	}
+
+	private static String number(double value){
+		return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+	}
+}
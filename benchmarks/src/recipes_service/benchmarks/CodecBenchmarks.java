@@ -0,0 +1,156 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.communication.BinaryCodec;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Benchmarks of the wire formats: the messages sent by a server in a TSAE
+ * session (an AE request with its summary and ack, and a batch of BATCH
+ * operations) are encoded in a new stream and decoded back, with BinaryCodec
+ * ("binary") and with Java serialization ("java"). The size reported is the
+ * length of the stream.
+ */
+final class CodecBenchmarks {
+	private static final String SUITE = "Codec";
+
+	// operations of the batch sent in each session
+	private static final int BATCH = 100;
+
+	private CodecBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new CodecBenchmark("binaryRoundTrip"){
+			protected byte[] encode(List<Message> messages) throws IOException{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(bytes);
+				for (Message message : messages){
+					encoder.write(message);
+				}
+				encoder.close();
+				return bytes.toByteArray();
+			}
+
+			protected long decode(byte[] stream) throws IOException{
+				BinaryCodec.Decoder decoder = new BinaryCodec.Decoder(new ByteArrayInputStream(stream));
+				long result = 0;
+				for (int i = 0; i < messages.size(); i++){
+					result += decoder.read().type().ordinal();
+				}
+				return result;
+			}
+		});
+
+		benchmarks.add(new CodecBenchmark("javaRoundTrip"){
+			protected byte[] encode(List<Message> messages) throws IOException{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				for (Message message : messages){
+					out.writeObject(message);
+				}
+				out.close();
+				return bytes.toByteArray();
+			}
+
+			protected long decode(byte[] stream) throws IOException{
+				ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(stream));
+				long result = 0;
+				try {
+					for (int i = 0; i < messages.size(); i++){
+						result += ((Message) in.readObject()).type().ordinal();
+					}
+				} catch (ClassNotFoundException e) {
+					throw new IOException(e);
+				}
+				return result;
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/**
+	 * Round trip of the messages of a session among numParticipants participants
+	 * (it doesn't depend on the log size)
+	 */
+	private abstract static class CodecBenchmark extends Benchmark{
+		protected List<Message> messages;
+
+		CodecBenchmark(String name){
+			super(SUITE, name);
+		}
+
+		public boolean dependsOnLogSize(){
+			return false;
+		}
+
+		public void setUp(int numParticipants, int logSize){
+			List<String> participants = Fixtures.participants(numParticipants);
+			TimestampVector summary = Fixtures.randomSummary(participants, 1);
+			TimestampMatrix ack = Fixtures.randomAck(participants, 2);
+			List<Operation> batch = new ArrayList<Operation>(BATCH);
+			for (int i = 0; i < BATCH; i++){
+				batch.add(Fixtures.add(participants.get(i % numParticipants), 1000 + i / numParticipants));
+			}
+			messages = new ArrayList<Message>();
+			messages.add(new MessageAErequest(participants.get(0), 1, 0, summary, ack));
+			messages.add(new MessageOperationBatch(batch));
+		}
+
+		protected abstract byte[] encode(List<Message> messages) throws IOException;
+
+		protected abstract long decode(byte[] stream) throws IOException;
+
+		public long size(){
+			try {
+				return encode(messages).length;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public long invoke(){
+			try {
+				byte[] stream = encode(messages);
+				return stream.length + decode(stream);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
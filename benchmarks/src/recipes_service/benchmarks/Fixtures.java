@@ -0,0 +1,156 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.Recipes;
+import recipes_service.tsae.data_structures.Log;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Data used by the benchmarks
+ */
+final class Fixtures {
+
+	private Fixtures(){
+	}
+
+	/**
+	 * @param n
+	 * @return ids of n participants
+	 */
+	static List<String> participants(int n){
+		List<String> participants = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++){
+			participants.add("host" + i + ":" + (35000 + i));
+		}
+		return participants;
+	}
+
+	/**
+	 * @param host
+	 * @param seqnumber
+	 * @return operation that adds a recipe, timestamped by host
+	 */
+	static Operation add(String host, long seqnumber){
+		Timestamp timestamp = new Timestamp(host, seqnumber);
+		return new AddOperation(recipe(host, seqnumber, timestamp), timestamp);
+	}
+
+	static Recipe recipe(String host, long seqnumber, Timestamp timestamp){
+		return new Recipe("recipe " + host + " " + seqnumber, "ingredients and preparation of recipe " + seqnumber, "author", timestamp);
+	}
+
+	/**
+	 * @param participants
+	 * @param size
+	 * @return log with size operations, timestamped by the participants in turns
+	 * (sequence numbers 0, 1, ... for each one)
+	 */
+	static Log log(List<String> participants, int size){
+		Log log = new Log(participants);
+		for (int i = 0; i < size; i++){
+			log.add(add(participants.get(i % participants.size()), i / participants.size()));
+		}
+		return log;
+	}
+
+	/**
+	 * @param participants
+	 * @param size
+	 * @return recipes added by the first size operations of log(participants, size)
+	 */
+	static Recipes recipes(List<String> participants, int size){
+		Recipes recipes = new Recipes();
+		for (int i = 0; i < size; i++){
+			String host = participants.get(i % participants.size());
+			long seqnumber = i / participants.size();
+			recipes.add(recipe(host, seqnumber, new Timestamp(host, seqnumber)));
+		}
+		return recipes;
+	}
+
+	/**
+	 * @param participants
+	 * @param size: operations in the log
+	 * @param fraction: fraction of the operations of each participant seen (0..1)
+	 * @return summary of a server that has seen the given fraction of the operations of log(participants, size)
+	 */
+	static TimestampVector summary(List<String> participants, int size, double fraction){
+		TimestampVector summary = new TimestampVector(participants);
+		long perHost = size / participants.size();
+		long seen = (long) (perHost * fraction);
+		for (String host : participants){
+			if (seen > 0){
+				summary.updateTimestamp(new Timestamp(host, seen - 1));
+			}
+		}
+		return summary;
+	}
+
+	/**
+	 * @param participants
+	 * @param seed
+	 * @return summary with pseudo-random sequence numbers in [0, 1000)
+	 */
+	static TimestampVector randomSummary(List<String> participants, long seed){
+		Random random = new Random(seed);
+		TimestampVector summary = new TimestampVector(participants);
+		for (String host : participants){
+			summary.updateTimestamp(new Timestamp(host, random.nextInt(1000)));
+		}
+		return summary;
+	}
+
+	/**
+	 * @param participants
+	 * @param seed
+	 * @return ack whose rows are pseudo-random summaries
+	 */
+	static TimestampMatrix randomAck(List<String> participants, long seed){
+		TimestampMatrix ack = new TimestampMatrix(participants);
+		for (int i = 0; i < participants.size(); i++){
+			ack.update(participants.get(i), randomSummary(participants, seed + i));
+		}
+		return ack;
+	}
+
+	/**
+	 * @param participants
+	 * @param summary
+	 * @return ack in which all the participants have seen summary
+	 */
+	static TimestampMatrix ack(List<String> participants, TimestampVector summary){
+		TimestampMatrix ack = new TimestampMatrix(participants);
+		for (String host : participants){
+			ack.update(host, summary);
+		}
+		return ack;
+	}
+}
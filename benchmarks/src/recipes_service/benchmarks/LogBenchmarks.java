@@ -0,0 +1,146 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.tsae.data_structures.Log;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Benchmarks of Log: add, listNewer and purgeLog (of half of the log, and
+ * incremental, as done after each session)
+ */
+final class LogBenchmarks {
+	private static final String SUITE = "Log";
+
+	private LogBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		// appends a new operation of each participant in turns to a log of logSize operations
+		benchmarks.add(new Benchmark(SUITE, "add"){
+			private List<String> participants;
+			private Log log;
+			private int next;
+
+			public void setUp(int numParticipants, int logSize){
+				participants = Fixtures.participants(numParticipants);
+				log = Fixtures.log(participants, logSize);
+				next = logSize;
+			}
+
+			public long invoke(){
+				int i = next++;
+				return log.add(Fixtures.add(participants.get(i % participants.size()), i / participants.size())) ? 1 : 0;
+			}
+		});
+
+		// lists the operations not seen by a partner that has seen 90% of the log
+		benchmarks.add(new Benchmark(SUITE, "listNewer"){
+			private Log log;
+			private TimestampVector partnerSummary;
+
+			public void setUp(int numParticipants, int logSize){
+				List<String> participants = Fixtures.participants(numParticipants);
+				log = Fixtures.log(participants, logSize);
+				partnerSummary = Fixtures.summary(participants, logSize, 0.9);
+			}
+
+			public long invoke(){
+				return log.listNewer(partnerSummary).size();
+			}
+		});
+
+		// purges half of a log of logSize operations (acknowledged by all the participants)
+		benchmarks.add(new Benchmark(SUITE, "purgeLog"){
+			private List<String> participants;
+			private int logSize;
+			private TimestampMatrix ack;
+			private Log log;
+
+			public void setUp(int numParticipants, int logSize){
+				participants = Fixtures.participants(numParticipants);
+				this.logSize = logSize;
+				ack = Fixtures.ack(participants, Fixtures.summary(participants, logSize, 0.5));
+			}
+
+			public boolean preparesInvocations(){
+				return true;
+			}
+
+			public void prepareInvocation(){
+				log = Fixtures.log(participants, logSize);
+			}
+
+			public long invoke(){
+				log.purgeLog(ack);
+				return log.lastSeqnumber(participants.get(0));
+			}
+		});
+
+		// steady state of a log of logSize operations purged after each session:
+		// each invocation updates the row of one participant in the ack (to the
+		// summary all the participants will have) and purges the log. The minima
+		// advance once every round of numParticipants invocations, when the last
+		// row is updated: then one operation of each participant is purged and a
+		// new one appended, so the log keeps its size. The cost should not
+		// depend on the log size
+		benchmarks.add(new Benchmark(SUITE, "purgeIncremental"){
+			private List<String> participants;
+			private Log log;
+			private TimestampMatrix ack;
+			private TimestampVector summary;
+			private long next;
+			private int row;
+
+			public void setUp(int numParticipants, int logSize){
+				participants = Fixtures.participants(numParticipants);
+				log = Fixtures.log(participants, logSize);
+				next = logSize / numParticipants;
+				summary = new TimestampVector(participants);
+				ack = Fixtures.ack(participants, summary);
+				row = 0;
+			}
+
+			public long invoke(){
+				if (row == 0){
+					for (String host : participants){
+						summary.updateTimestamp(new Timestamp(host, next - log.size(host)));
+						log.add(Fixtures.add(host, next));
+					}
+					next++;
+				}
+				ack.update(participants.get(row), summary);
+				row = (row + 1) % participants.size();
+				log.purgeLog(ack);
+				return log.size(participants.get(0));
+			}
+		});
+
+		return benchmarks;
+	}
+}
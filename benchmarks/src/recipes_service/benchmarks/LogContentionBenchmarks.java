@@ -0,0 +1,144 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.Log;
+
+/**
+ * Benchmarks of concurrent appends to a Log: WRITERS threads append, at the
+ * same time, BATCH new operations each, of different hosts (as TSAE sessions
+ * with different partners do). Each invocation is a round of BATCH
+ * operations per writer.
+ * 
+ * "striped" relies on the per-host locks of the log; "globalLock" guards
+ * each append with a single monitor (as the log did before appends were
+ * striped), so the difference between both is the cost of contention.
+ * Writers are one per available processor (at least two, and no more than
+ * participants).
+ */
+final class LogContentionBenchmarks {
+	private static final String SUITE = "LogContention";
+
+	// operations appended by each writer in each invocation
+	private static final int BATCH = 1000;
+	private static final int WRITERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static final ExecutorService writers = Executors.newFixedThreadPool(WRITERS, new ThreadFactory(){
+		public Thread newThread(Runnable r){
+			Thread thread = new Thread(r, "benchmark-writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private LogContentionBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new ContentionBenchmark("striped"){
+			protected boolean append(Operation op){
+				return log.add(op);
+			}
+		});
+
+		final Object lock = new Object();
+		benchmarks.add(new ContentionBenchmark("globalLock"){
+			protected boolean append(Operation op){
+				synchronized (lock){
+					return log.add(op);
+				}
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/**
+	 * Each writer appends the operations of its own hosts (those whose index
+	 * modulo the number of writers is the index of the writer) in turns,
+	 * starting from a log of logSize operations. There are never more writers
+	 * than participants.
+	 */
+	private abstract static class ContentionBenchmark extends Benchmark{
+		protected Log log;
+		private List<String> participants;
+		private int numWriters;
+		private long[] next;
+
+		ContentionBenchmark(String name){
+			super(SUITE, name);
+		}
+
+		public void setUp(int numParticipants, int logSize){
+			participants = Fixtures.participants(numParticipants);
+			log = Fixtures.log(participants, logSize);
+			numWriters = Math.min(WRITERS, numParticipants);
+			next = new long[numParticipants];
+			for (int i = 0; i < numParticipants; i++){
+				next[i] = log.lastSeqnumber(participants.get(i)) + 1;
+			}
+		}
+
+		protected abstract boolean append(Operation op);
+
+		public long invoke(){
+			List<Future<Long>> rounds = new ArrayList<Future<Long>>(numWriters);
+			for (int w = 0; w < numWriters; w++){
+				final int writer = w;
+				rounds.add(writers.submit(() -> appendBatch(writer)));
+			}
+			long appended = 0;
+			try {
+				for (Future<Long> round : rounds){
+					appended += round.get();
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			return appended;
+		}
+
+		private long appendBatch(int writer){
+			long appended = 0;
+			int h = writer;
+			for (int i = 0; i < BATCH; i++){
+				if (append(Fixtures.add(participants.get(h), next[h]++))){
+					appended++;
+				}
+				h += numWriters;
+				if (h >= participants.size()){
+					h = writer;
+				}
+			}
+			return appended;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.tsae.data_structures.LogStore;
+
+/**
+ * Benchmark of LogStore: append (write throughput of the on-disk log).
+ * Operations of each participant are appended in turns to an empty store
+ * (in a temporary directory, deleted before each iteration and at exit).
+ * Appends are not forced to disk: that is done when a checkpoint is written.
+ */
+final class LogStoreBenchmarks {
+	private static final String SUITE = "LogStore";
+
+	private LogStoreBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new Benchmark(SUITE, "append"){
+			private List<String> participants;
+			private File directory;
+			private LogStore store;
+			private int next;
+
+			public boolean dependsOnLogSize(){
+				return false;
+			}
+
+			public void setUp(int numParticipants, int logSize){
+				participants = Fixtures.participants(numParticipants);
+				try {
+					if (store != null){
+						store.close();
+						delete(directory);
+					} else {
+						Runtime.getRuntime().addShutdownHook(new Thread(){
+							public void run(){
+								delete(directory);
+							}
+						});
+					}
+					directory = Files.createTempDirectory("tsae-logstore").toFile();
+					store = new LogStore(directory);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				next = 0;
+			}
+
+			public long invoke(){
+				int i = next++;
+				try {
+					store.append(Fixtures.add(participants.get(i % participants.size()), i / participants.size()));
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				return i;
+			}
+		});
+
+		return benchmarks;
+	}
+
+	private static void delete(File file){
+		File[] files = file.listFiles();
+		if (files != null){
+			for (File child : files){
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
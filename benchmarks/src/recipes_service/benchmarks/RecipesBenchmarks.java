@@ -0,0 +1,82 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.data.Recipes;
+import recipes_service.tsae.data_structures.Timestamp;
+
+/**
+ * Benchmarks of Recipes: add and getRandomRecipeTitle on logSize recipes
+ * (they don't depend on the number of participants)
+ */
+final class RecipesBenchmarks {
+	private static final String SUITE = "Recipes";
+	private static final String HOST = "host";
+
+	private RecipesBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new RecipesBenchmark("add"){
+			private long next;
+
+			public void setUp(int numParticipants, int logSize){
+				super.setUp(numParticipants, logSize);
+				next = 0;
+			}
+
+			public long invoke(){
+				long seqnumber = next++;
+				recipes.add(Fixtures.recipe(HOST, seqnumber, new Timestamp(HOST, seqnumber)));
+				return seqnumber;
+			}
+		});
+
+		benchmarks.add(new RecipesBenchmark("getRandomRecipeTitle"){
+			public long invoke(){
+				return recipes.getRandomRecipeTitle().length();
+			}
+		});
+
+		return benchmarks;
+	}
+
+	private abstract static class RecipesBenchmark extends Benchmark{
+		protected Recipes recipes;
+
+		RecipesBenchmark(String name){
+			super(SUITE, name);
+		}
+
+		public boolean dependsOnParticipants(){
+			return false;
+		}
+
+		public void setUp(int numParticipants, int logSize){
+			recipes = Fixtures.recipes(Fixtures.participants(1), logSize);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.tsae.data_structures.TimestampMatrix;
+
+/**
+ * Benchmarks of TimestampMatrix: updateMax, minTimestampVector and clone.
+ * updateMax is applied to a copy of the same ack in each invocation
+ * (as done in TSAE sessions), so the copy is included in its cost.
+ */
+final class TimestampMatrixBenchmarks {
+	private static final String SUITE = "TimestampMatrix";
+
+	private TimestampMatrixBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new MatrixBenchmark("updateMax"){
+			public long invoke(){
+				TimestampMatrix result = ack.clone();
+				result.updateMax(other);
+				return result.getMinVersion();
+			}
+		});
+
+		benchmarks.add(new MatrixBenchmark("minTimestampVector"){
+			public long invoke(){
+				return ack.minTimestampVector().getSeqnumber(0);
+			}
+		});
+
+		benchmarks.add(new MatrixBenchmark("clone"){
+			public long invoke(){
+				return ack.clone().getMinVersion();
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/**
+	 * Benchmark on two acks of numParticipants participants
+	 * (it doesn't depend on the log size)
+	 */
+	private abstract static class MatrixBenchmark extends Benchmark{
+		protected TimestampMatrix ack;
+		protected TimestampMatrix other;
+
+		MatrixBenchmark(String name){
+			super(SUITE, name);
+		}
+
+		public boolean dependsOnLogSize(){
+			return false;
+		}
+
+		public void setUp(int numParticipants, int logSize){
+			List<String> participants = Fixtures.participants(numParticipants);
+			ack = Fixtures.randomAck(participants, 1);
+			other = Fixtures.randomAck(participants, 1000);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Benchmarks of TimestampVector: updateTimestamp, updateMax, mergeMin and clone.
+ * updateMax and mergeMin are applied to a copy of the same summary in each
+ * invocation (as done in TSAE sessions), so the copy is included in their cost.
+ * updateTimestamp is applied to the same summary, as done for each operation
+ * received.
+ */
+final class TimestampVectorBenchmarks {
+	private static final String SUITE = "TimestampVector";
+
+	private TimestampVectorBenchmarks(){
+	}
+
+	static List<Benchmark> benchmarks(){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new VectorBenchmark("updateTimestamp"){
+			private long seqnumber = 0;
+
+			public long invoke(){
+				seqnumber++;
+				summary.updateTimestamp(new Timestamp(participants.get((int) (seqnumber % participants.size())), seqnumber));
+				return summary.getSeqnumber(0);
+			}
+		});
+
+		benchmarks.add(new VectorBenchmark("updateMax"){
+			public long invoke(){
+				TimestampVector result = summary.clone();
+				result.updateMax(other);
+				return result.getSeqnumber(0);
+			}
+		});
+
+		benchmarks.add(new VectorBenchmark("mergeMin"){
+			public long invoke(){
+				TimestampVector result = summary.clone();
+				result.mergeMin(other);
+				return result.getSeqnumber(0);
+			}
+		});
+
+		benchmarks.add(new VectorBenchmark("clone"){
+			public long invoke(){
+				return summary.clone().getSeqnumber(0);
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/**
+	 * Benchmark on two summaries of numParticipants participants
+	 * (it doesn't depend on the log size)
+	 */
+	private abstract static class VectorBenchmark extends Benchmark{
+		protected List<String> participants;
+		protected TimestampVector summary;
+		protected TimestampVector other;
+
+		VectorBenchmark(String name){
+			super(SUITE, name);
+		}
+
+		public boolean dependsOnLogSize(){
+			return false;
+		}
+
+		public void setUp(int numParticipants, int logSize){
+			participants = Fixtures.participants(numParticipants);
+			summary = Fixtures.randomSummary(participants, 1);
+			other = Fixtures.randomSummary(participants, 2);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+#!/bin/bash
+# compiles and runs the benchmarks of the TSAE data structures (Log, concurrent appends to the Log, LogStore,
+# TimestampVector, TimestampMatrix, Recipes and the wire formats). Requires the classes of the project compiled in ../bin
+#optional args:
+#-o <file>: file where results are written in JSON (default: benchmarks.json)
+#-participants <n1,n2,...>: numbers of participants (default: 5,50,500)
+#-logSize <n1,n2,...>: log sizes (default: 1000,10000,100000)
+#-wi <n>: warmup iterations (default: 3)
+#-i <n>: measurement iterations (default: 5)
+#-time <ms>: duration of each iteration in milliseconds (default: 1000)
+#-b <regex>: runs only the benchmarks whose name (e.g. Log.listNewer) matches regex
+
+mkdir -p ../benchmarks/bin
+javac -d ../benchmarks/bin -cp ../bin:../lib/* $(find ../benchmarks/src -name '*.java') || exit 1
+java -cp ../benchmarks/bin:../bin:../lib/* recipes_service.benchmarks.BenchmarkRunner $*
@@ -0,0 +1,15 @@
+#!/bin/bash
+# runs experiments with all the Servers in a single process, in virtual time
+# (TSAE and simulation parameters are read from config.properties)
+# the cost of a round grows as n^3: use wireFormat=binary and a longer executionStop
+# for 100 servers or more; about 200 servers is the limit of an experiment
+#optional args:
+#-n <n1,n2,...>: number of Servers of each experiment (default: 10,100)
+#-config <file>: configuration file (default: config.properties)
+#-seed <seed>: seed of the simulated activity (default: 1)
+#-partners <s1,s2,...>: partner selection strategies to compare, e.g. random,divergence,leastRecent,overlay
+#	(default: partnerSelection in the configuration file)
+#-restarts <k>: number of servers that crash and are restarted (recovering their stored state)
+#	in the middle of the activity simulation (default: 0)
+
+java -cp ../bin:../lib/* recipes_service.simulation.ClusterSimulator $*
@@ -0,0 +1,17 @@
+#!/bin/bash
+# stress test of the threads of TSAE sessions: Servers in a single process, connected
+# by TCP sockets on the loopback interface, start sessions with numSes others (all of them
+# by default) every period ms (far more than maxPartnerSessions at the same time) until
+# they converge: compares the convergence time of the sessionThreads modes with numSes > 1
+# (TSAE parameters are read from config.properties)
+#optional args:
+#-n <n>: number of Servers (default: 20)
+#-config <file>: configuration file (default: config.properties)
+#-numSes <n>: number of partners of each Server every period (default: n - 1)
+#-sessionThreads <m1,m2>: sessionThreads modes to compare: pool, virtual (default: pool,virtual)
+#-period <ms>: period between the TSAE sessions of a Server (default: 200)
+#-ops <n>: number of operations generated (default: 400)
+#-timeout <s>: maximum duration of each experiment (default: 60)
+#-seed <seed>: seed of the operations (default: 1)
+
+java -cp ../bin:../lib/* recipes_service.simulation.SessionStress $*
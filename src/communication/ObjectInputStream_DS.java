@@ -25,10 +25,13 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 
 import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.BinaryCodec;
 
 
 /**
  * Implements a modification of the ObjectInputStream to simulate failures.
+ * When the binary wire format is selected, messages are decoded with
+ * BinaryCodec instead of Java serialization.
  * 
  * @author Joan-Manuel Marques
  * December 2012
@@ -36,16 +39,44 @@ import recipes_service.activity_simulation.SimulationData;
  */
 public class ObjectInputStream_DS {
 	private ObjectInputStream in;
+	private BinaryCodec.Decoder decoder;
 	
 	public ObjectInputStream_DS(InputStream inStream) throws IOException{
-		in = new ObjectInputStream(inStream);
+		if (SimulationData.getInstance().binaryWireFormat()){
+			decoder = new BinaryCodec.Decoder(inStream);
+		} else {
+			in = new ObjectInputStream(inStream);
+		}
 	}
 
 	public Object readObject() throws IOException, ClassNotFoundException{
 		if (SimulationData.getInstance().isConnected()){
+			if (decoder != null){
+				return decoder.read();
+			}
 			return in.readObject();
 		}
-		in.close();
+		close();
 		throw new IOException("Trying to read from a closed ObjectInputStream_DS");
 	}
+
+	/**
+	 * @return number of bytes that can be read without blocking
+	 * (including the ones already buffered by the stream)
+	 * @throws IOException
+	 */
+	public int available() throws IOException{
+		if (decoder != null){
+			return decoder.available();
+		}
+		return in.available();
+	}
+
+	private void close() throws IOException{
+		if (decoder != null){
+			decoder.close();
+		} else {
+			in.close();
+		}
+	}
 }
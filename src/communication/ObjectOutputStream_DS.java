@@ -25,10 +25,14 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.BinaryCodec;
+import recipes_service.communication.Message;
 
 
 /**
  * Implements a modification of the ObjectOutputStream to simulate failures.
+ * When the binary wire format is selected, messages are encoded with
+ * BinaryCodec instead of Java serialization.
  * 
  * @author Joan-Manuel Marques
  * December 2012
@@ -36,17 +40,45 @@ import recipes_service.activity_simulation.SimulationData;
  */
 public class ObjectOutputStream_DS {
 	private ObjectOutputStream out;
+	private BinaryCodec.Encoder encoder;
 	
 	public ObjectOutputStream_DS(OutputStream outStream) throws IOException{
-		this.out = new ObjectOutputStream(outStream);
+		if (SimulationData.getInstance().binaryWireFormat()){
+			this.encoder = new BinaryCodec.Encoder(outStream);
+		} else {
+			this.out = new ObjectOutputStream(outStream);
+		}
 	}
 
 	public void writeObject(Object obj) throws IOException{
 		if (SimulationData.getInstance().isConnected()){
-			out.writeObject(obj);
+			if (encoder != null){
+				encoder.write((Message) obj);
+			} else {
+				out.writeObject(obj);
+			}
 		} else {
-			out.close();
+			close();
 			throw new IOException("Trying to write into a closed ObjectOutputStream_DS");
 		}
 	}
+
+	/**
+	 * Objects already written are forgotten: if they are written again they
+	 * will be sent in full (as in a new stream) instead of as a reference
+	 * @throws IOException
+	 */
+	public void reset() throws IOException{
+		if (out != null){
+			out.reset();
+		}
+	}
+
+	private void close() throws IOException{
+		if (encoder != null){
+			encoder.close();
+		} else {
+			out.close();
+		}
+	}
 }
@@ -71,9 +71,85 @@ public class WorkerInitHandler implements Handler {
 		serverData.setSessionDelay(Long.parseLong((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("sessionDelay"))*1000);
 		serverData.setSessionPeriod(Long.parseLong((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("sessionPeriod"))*1000);
 		
+		// period of TSAE sessions adapted to the divergence observed: "On" to activate (default: fixed sessionPeriod),
+		// between minSessionPeriod and maxSessionPeriod seconds (optional: ServerData defaults are used if not present)
+		serverData.setAdaptiveSessions("On".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("adaptiveSessions")));
+		String minSessionPeriod = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("minSessionPeriod");
+		if (minSessionPeriod != null){
+			serverData.setMinSessionPeriod(Long.parseLong(minSessionPeriod.trim())*1000);
+		}
+		String maxSessionPeriod = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("maxSessionPeriod");
+		if (maxSessionPeriod != null){
+			serverData.setMaxSessionPeriod(Long.parseLong(maxSessionPeriod.trim())*1000);
+		}
+
+		// strategy to choose the partners of TSAE sessions (optional: random if not present)
+		String partnerSelection = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("partnerSelection");
+		if (partnerSelection != null){
+			serverData.setPartnerSelection(partnerSelection.trim());
+		}
+
 		serverData.setNumberSessions(Integer.parseInt((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("numSes"))*1000);
 		serverData.setPropagationDegree(Integer.parseInt((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("propDegree"))*1000);
 
+		// operations per frame in TSAE sessions (optional: ServerData defaults are used if not present)
+		String opsPerBatch = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("opsPerBatch");
+		if (opsPerBatch != null){
+			serverData.setOperationsPerBatch(Integer.parseInt(opsPerBatch.trim()));
+		}
+		String bytesPerBatch = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("bytesPerBatch");
+		if (bytesPerBatch != null){
+			serverData.setBytesPerBatch(Integer.parseInt(bytesPerBatch.trim()));
+		}
+
+		// maximum number of TSAE sessions from partners served at the same time (optional)
+		String maxPartnerSessions = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("maxPartnerSessions");
+		if (maxPartnerSessions != null){
+			serverData.setMaxPartnerSessions(Integer.parseInt(maxPartnerSessions.trim()));
+		}
+
+		// seconds that connections to partners are kept open between TSAE sessions (optional)
+		String channelIdleTimeout = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("channelIdleTimeout");
+		if (channelIdleTimeout != null){
+			serverData.setChannelIdleTimeout(Long.parseLong(channelIdleTimeout.trim())*1000);
+		}
+
+		// directory where the log is stored to recover the server when restarted (optional: empty or absent to keep it only in memory)
+		String logDir = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("logDir");
+		if (logDir != null && !logDir.trim().isEmpty()){
+			serverData.setLogDir(logDir.trim());
+		}
+
+		// number of missing operations above which a partner receives a snapshot of the recipes (optional: 0 only when its operations have been purged)
+		String snapshotThreshold = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("snapshotThreshold");
+		if (snapshotThreshold != null){
+			serverData.setSnapshotThreshold(Integer.parseInt(snapshotThreshold.trim()));
+		}
+
+		// metrics of TSAE sessions: "On" to publish them through JMX (default: deactivated)
+		serverData.setMetricsJmx("On".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("metricsJmx")));
+
+		// seconds between dumps of the metrics of TSAE sessions to the standard output (optional: 0 or absent to never dump them)
+		String metricsDumpPeriod = (String)((LSimParameters)params.get("coordinatorLSimParameters")).get("metricsDumpPeriod");
+		if (metricsDumpPeriod != null){
+			serverData.setMetricsDumpPeriod(Long.parseLong(metricsDumpPeriod.trim())*1000);
+		}
+
+		// execution of TSAE sessions: "virtual" to run each session in its own virtual thread (default: thread pool)
+		serverData.setVirtualThreadSessions("virtual".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("sessionThreads")));
+
+		// delta exchange of summary and ack: "On" to activate (default: deactivated)
+		serverData.setDeltaExchange("On".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("deltaExchange")));
+
+		// digest handshake at the beginning of TSAE sessions: "On" to activate (default: deactivated)
+		serverData.setDigestHandshake("On".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("digestHandshake")));
+
+		// pipelined TSAE sessions (operations sent in both directions at the same time): "On" to activate (default: deactivated)
+		serverData.setPipelinedSessions("On".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("pipelinedSessions")));
+
+		// execution of received operations as soon as they arrive (instead of at the end of the TSAE session): "On" to activate (default: deactivated)
+		serverData.setStreamingApply("On".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("streamingApply")));
+
 		// params 4 to 11: simulation parameters
 		SimulationData.getInstance().setSimulationStop(Integer.parseInt((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("simulationStop"))*1000);
 		SimulationData.getInstance().setExecutionStop(Integer.parseInt((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("executionStop"))*1000);
@@ -103,6 +179,10 @@ public class WorkerInitHandler implements Handler {
 		// * false: Servers running in different computers (or more than one Server in a single computer but
 		// 			this computer having the same internal and external IP address)
 		SimulationData.getInstance().setLocalExecution(((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("executionMode")).equals("localMode"));
+
+		// param 14: wire format of TSAE messages: "binary": compact binary encoding;
+		// any other value (default "java"): Java serialization
+		SimulationData.getInstance().setBinaryWireFormat("binary".equals((String)((LSimParameters)params.get("coordinatorLSimParameters")).get("wireFormat")));
 		
 		
 		//         this computer having the same internal and external IP address) 
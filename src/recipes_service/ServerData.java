@@ -20,9 +20,21 @@
 
 package recipes_service;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import recipes_service.data.RemoveOperation;
 import recipes_service.activity_simulation.SimulationData;
@@ -30,13 +42,25 @@ import recipes_service.communication.Host;
 import recipes_service.communication.Hosts;
 import recipes_service.data.AddOperation;
 import recipes_service.data.Operation;
+import recipes_service.data.OperationType;
 import recipes_service.data.Recipe;
 import recipes_service.data.Recipes;
 import recipes_service.tsae.data_structures.Log;
+import recipes_service.tsae.data_structures.LogStore;
+import recipes_service.tsae.data_structures.ParticipantIndex;
 import recipes_service.tsae.data_structures.Timestamp;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.metrics.TSAEMetrics;
+import recipes_service.tsae.partners.PartnerSelector;
+import recipes_service.tsae.partners.PartnerSelectors;
+import recipes_service.tsae.sessions.AdaptiveSessionTimer;
+import recipes_service.tsae.sessions.ExchangeBaselines;
+import recipes_service.tsae.sessions.TSAEChannelPool;
 import recipes_service.tsae.sessions.TSAESessionOriginatorSide;
+import recipes_service.tsae.sessions.TSAETransport;
+import util.Scheduler;
+import util.TimerScheduler;
 
 /**
  * @author Joan-Manuel Marques
@@ -61,8 +85,8 @@ public class ServerData {
 	private TimestampVector summary = null;
 	private TimestampMatrix ack = null;
 	
-	// recipes data structure
-	private Recipes recipes = new Recipes();
+	// recipes data structure (replaced when a snapshot is installed)
+	private volatile Recipes recipes = new Recipes();
 
 	// number of TSAE sessions
 	int numSes = 1; // number of different partners that a server will contact for a TSAE session each time that TSAE timer (each sessionPeriod seconds) expires
@@ -70,6 +94,68 @@ public class ServerData {
 	// propDegree: (default value: 0) number of TSAE sessions done each time a new data is created
 	int propDegree = 0;
 	
+	// operations sent in a single frame during TSAE sessions:
+	// at most opsPerBatch operations and about bytesPerBatch bytes
+	// (opsPerBatch <= 1: one frame per operation)
+	int opsPerBatch = 100;
+	int bytesPerBatch = 64 * 1024;
+	
+	// deltaExchange: true to send to each partner only the entries of summary and ack
+	// that changed since the last exchange with it; false to always send them in full
+	boolean deltaExchange = false;
+	private ExchangeBaselines exchangeBaselines = null;
+
+	// digestHandshake: true to start TSAE sessions exchanging a digest of the state
+	// (recipes and summary) and end them if both servers have the same one
+	boolean digestHandshake = false;
+
+	// pipelinedSessions: true to start TSAE sessions asking the partner to answer with its
+	// summary and ack right away and then send operations in both directions at the same time
+	boolean pipelinedSessions = false;
+
+	// streamingApply: true to execute the operations received in a TSAE session as soon as
+	// each frame arrives; false to keep them until the end of the session
+	boolean streamingApply = false;
+
+	// maximum number of TSAE sessions from partners served at the same time
+	int maxPartnerSessions = 8;
+
+	// virtualThreadSessions: true to run each TSAE session (both originator and partner sides)
+	// in its own virtual thread (platform thread if the JVM has no virtual threads);
+	// false to run originator sessions sequentially in the timer thread and
+	// partner sessions in a pool of maxPartnerSessions threads
+	boolean virtualThreadSessions = false;
+
+	// channels to partners kept open between TSAE sessions for channelIdleTimeout
+	// milliseconds (0: a new connection for each session)
+	long channelIdleTimeout = 0;
+	private TSAEChannelPool channels = null;
+
+	// transport: opens the connections to partners (null: TCP sockets)
+	private TSAETransport transport = null;
+
+	// logDir: directory where the log is stored to recover the state of
+	// the server when it is restarted (null: the log is only kept in memory)
+	String logDir = null;
+	private LogStore logStore = null;
+	// checkpoints are written one at a time, without holding the lock of serverData:
+	// those requested by purges by their own thread (at most one waiting)
+	private final Object checkpointLock = new Object();
+	private ExecutorService checkpoints = null;
+	private final AtomicBoolean checkpointRequested = new AtomicBoolean(false);
+
+	// snapshotThreshold: a partner that misses more than snapshotThreshold operations
+	// receives a snapshot of the recipes plus the log tail instead of the operations
+	// one by one (0: only when the log no longer has the operations it misses)
+	int snapshotThreshold = 0;
+
+	// metrics of the TSAE sessions: registered in JMX if metricsJmx and written
+	// to the standard output every metricsDumpPeriod milliseconds (0: never)
+	private final TSAEMetrics metrics = new TSAEMetrics(this);
+	boolean metricsJmx = false;
+	long metricsDumpPeriod = 0;
+	private Scheduler.Task metricsDump = null;
+	
 	// Participating nodes
 	private Hosts participants;
 
@@ -77,7 +163,24 @@ public class ServerData {
 	private long sessionDelay;
 	private long sessionPeriod = 10;
 
-	private Timer tsaeSessionTimer;
+	// adaptiveSessions: true to adapt the period of TSAE sessions to the divergence observed
+	// (between minSessionPeriod and maxSessionPeriod milliseconds); false for a fixed sessionPeriod
+	boolean adaptiveSessions = false;
+	long minSessionPeriod = 5000;
+	long maxSessionPeriod = 120000;
+
+	// partnerSelection: strategy to choose the partners of TSAE sessions
+	// (random, divergence, leastRecent or overlay: see PartnerSelectors)
+	String partnerSelection = PartnerSelectors.RANDOM;
+	private PartnerSelector partnerSelector;
+
+	// random: source of the random choices of TSAE sessions (partners and the jitter
+	// of adaptive sessions). A simulation sets a seeded one to be reproducible
+	private Random random = new Random();
+
+	// scheduler: runs the TSAE timer (in real time unless a simulation sets its own)
+	private Scheduler scheduler = new TimerScheduler();
+	private Scheduler.Task tsaeSessionTimer;
 
 	//
 	TSAESessionOriginatorSide tsae = null;
@@ -96,22 +199,188 @@ public class ServerData {
 	/**
 	 * Starts the execution
 	 * @param participantss
+	 * @throws IllegalStateException if logDir is set and the state stored
+	 * in it can not be recovered
 	 */
 	public void startTSAE(Hosts participants){
 		this.participants = participants;
+		// table of participant indexes shared by all the timestamp vectors
+		ParticipantIndex participantIndex = ParticipantIndex.of(participants.getIds());
 		this.log = new Log(participants.getIds());
-		this.summary = new TimestampVector(participants.getIds());
+		this.summary = new TimestampVector(participantIndex);
 		this.ack = new TimestampMatrix(participants.getIds());
+		this.exchangeBaselines = new ExchangeBaselines(id, deltaExchange);
+		this.channels = new TSAEChannelPool(channelIdleTimeout, transport);
+		this.partnerSelector = PartnerSelectors.create(partnerSelection, this);
+		if (logDir != null){
+			recover();
+		}
 		
 
 		//  Sets the Timer for TSAE sessions
 	    tsae = new TSAESessionOriginatorSide(this);
-		tsaeSessionTimer = new Timer();
-		tsaeSessionTimer.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod);
+		if (adaptiveSessions){
+			AdaptiveSessionTimer timer = new AdaptiveSessionTimer(this, tsae, scheduler, sessionPeriod, minSessionPeriod, maxSessionPeriod);
+			timer.start(sessionDelay);
+			tsaeSessionTimer = timer;
+		} else {
+			tsaeSessionTimer = scheduler.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod);
+		}
+
+		if (metricsJmx){
+			metrics.register();
+		}
+		if (metricsDumpPeriod > 0){
+			metricsDump = scheduler.scheduleAtFixedRate(new Runnable(){
+				public void run() {
+					System.out.println("[" + id + "] TSAE metrics: " + metrics.snapshot());
+				}
+			}, metricsDumpPeriod, metricsDumpPeriod);
+		}
+	}
+
+	/**
+	 * Recovers the state stored in logDir by a previous execution of the server:
+	 * the last checkpoint plus the operations stored after it. Operations
+	 * inserted from now on are also stored.
+	 */
+	private void recover(){
+		try {
+			logStore = new LogStore(new File(logDir, LogStore.fileName(id)));
+			LogStore.Checkpoint checkpoint = logStore.readCheckpoint();
+			if (checkpoint != null){
+				recipes = checkpoint.getRecipes();
+				summary.updateMax(checkpoint.getSummary());
+				ack.updateMax(checkpoint.getAck());
+				// operations included in the checkpoint are not kept in the log
+				// (partners that miss them receive a snapshot)
+				for (String host : participants.getIds()){
+					Timestamp last = checkpoint.getSummary().getLast(host);
+					if (last != null){
+						log.truncate(host, last.getSeqnumber());
+					}
+				}
+			}
+			// operations not included in the checkpoint are executed again. As the
+			// order among operations of different hosts is not stored, removes are
+			// executed after all the adds (and only remove the recipe they refer to)
+			List<RemoveOperation> removes = new ArrayList<RemoveOperation>();
+			for (List<Operation> ops : logStore.readOperations().values()){
+				for (Operation op : ops){
+					Timestamp last = summary.getLast(op.getTimestamp().getHostid());
+					if (log.add(op) && (last == null || op.getTimestamp().compare(last) > 0)){
+						if (op.getType() == OperationType.ADD){
+							recipes.add(((AddOperation) op).getRecipe());
+						} else {
+							removes.add((RemoveOperation) op);
+						}
+						summary.updateTimestamp(op.getTimestamp());
+					}
+				}
+			}
+			for (RemoveOperation removeOp : removes){
+				Recipe recipe = recipes.get(removeOp.getRecipeTitle());
+				if (recipe != null && (removeOp.getRecipeTimestamp() == null || removeOp.getRecipeTimestamp().equals(recipe.getTimestamp()))){
+					recipes.remove(removeOp.getRecipeTitle());
+				}
+			}
+			// new operations of this server continue the sequence of the previous execution
+			Timestamp last = summary.getLast(id);
+			if (last != null && !last.isNullTimestamp()){
+				synchronized (timestampLock){
+					seqnum = Math.max(seqnum, last.getSeqnumber());
+				}
+			}
+			log.setStore(logStore);
+			checkpoints = Executors.newSingleThreadExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TSAECheckpointThread");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} catch (IOException e) {
+			// the server must not start without its previous state: its new
+			// operations would reuse the timestamps of the lost ones
+			throw new IllegalStateException("Unable to recover the state stored in " + logDir + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Purges the log (operations known by all the participants according to ack).
+	 * If the log is stored, segments only containing purged operations are deleted
+	 * once a checkpoint that includes them is written (by the checkpoint thread,
+	 * so sessions don't wait for it).
+	 * Must be called holding the lock of serverData.
+	 */
+	public void purgeLog(){
+		log.purgeLog(ack);
+		if (logStore != null && logStore.hasPurgeableSegments(ack) && checkpointRequested.compareAndSet(false, true)){
+			try {
+				checkpoints.execute(new Runnable(){
+					public void run() {
+						checkpointRequested.set(false);
+						writeCheckpoint(true);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the server is stopping: segments are deleted in a later execution
+				checkpointRequested.set(false);
+			}
+		}
 	}
 
+	/**
+	 * Writes a checkpoint of the current state to the log store
+	 * @param purge: true to delete the segments included in the checkpoint
+	 * and acknowledged by all the participants
+	 */
+	private void writeCheckpoint(boolean purge){
+		synchronized (checkpointLock){
+			// recipes are copied holding the locks of all the log segments (as in snapshot):
+			// the summary of the checkpoint includes exactly the operations executed on them
+			final LogStore.Checkpoint[] checkpoint = new LogStore.Checkpoint[1];
+			withHostLocks(sortedParticipantIds(), 0, new Runnable() {
+				public void run() {
+					checkpoint[0] = new LogStore.Checkpoint(recipes.clone(), logSummary(), ack.clone());
+				}
+			});
+			try {
+				logStore.writeCheckpoint(checkpoint[0]);
+				if (purge){
+					logStore.purge(checkpoint[0], ack);
+				}
+			} catch (IOException e) {
+				// segments are only deleted once a checkpoint includes them: they are kept
+				// and the checkpoint is written again the next time the log is purged
+				System.err.println("ServerData -- Unable to write a checkpoint in " + logDir + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stops the TSAE sessions of this server: the timer and the executor of
+	 * the sessions are stopped, the connections kept open are closed and
+	 * the checkpoint being written (if any) is finished
+	 * (sessions from partners are stopped by ServerPartnerSide once the
+	 * server ends)
+	 */
 	public void stopTSAEsessions(){
 		this.tsaeSessionTimer.cancel();
+		this.tsae.shutdown();
+		this.channels.close();
+		if (checkpoints != null){
+			checkpoints.shutdown();
+			try {
+				checkpoints.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (metricsDump != null){
+			metricsDump.cancel();
+		}
+		metrics.unregister();
 	}
 	
 	public boolean end(){
@@ -139,43 +408,204 @@ public class ServerData {
 	// ******************************
 	// *** add and remove recipes
 	// ******************************
-	public synchronized void addRecipe(String recipeTitle, String recipe) {
-
-		Timestamp timestamp= nextTimestamp();
-		Recipe rcpe = new Recipe(recipeTitle, recipe, groupId, timestamp);
-		Operation op=new AddOperation(rcpe, timestamp);
+	public void addRecipe(String recipeTitle, String recipe) {
+		// operations of this server must enter the log in timestamp order
+		synchronized (log.getHostLock(id)) {
+			Timestamp timestamp= nextTimestamp();
+			Recipe rcpe = new Recipe(recipeTitle, recipe, groupId, timestamp);
+			Operation op=new AddOperation(rcpe, timestamp);
 
-		this.log.add(op);
-		this.summary.updateTimestamp(timestamp);
-		this.recipes.add(rcpe);
+			this.log.add(op);
+			this.summary.updateTimestamp(timestamp);
+			this.recipes.add(rcpe);
+		}
 	}
 	
-	public synchronized void removeRecipe(String recipeTitle){
-		Timestamp timestamp = nextTimestamp();
-        Recipe rcpe = this.recipes.get(recipeTitle);
-        Operation op = new RemoveOperation(recipeTitle, rcpe.getTimestamp(), timestamp);
-
-        this.log.add(op);
-        this.summary.updateTimestamp(timestamp);
-        this.recipes.remove(recipeTitle);
+	public void removeRecipe(String recipeTitle){
+		synchronized (log.getHostLock(id)) {
+			Timestamp timestamp = nextTimestamp();
+			Recipe rcpe = this.recipes.get(recipeTitle);
+			Operation op = new RemoveOperation(recipeTitle, rcpe.getTimestamp(), timestamp);
+
+			this.log.add(op);
+			this.summary.updateTimestamp(timestamp);
+			this.recipes.remove(recipeTitle);
+		}
 		//System.err.println("Error: removeRecipe method (recipesService.serverData) not yet implemented");
 	}
 	
-	public synchronized void execOperation(AddOperation addOp) {
-        if (this.log.add(addOp)) {
-            this.recipes.add(addOp.getRecipe());
-        }
-    }
-
-	    /**
-	     * When an operation is retrieved from a different peer, it is executed by (in this case)
-	     * removing the recipe and remembering the operation in the log.
-	     */
-	    public synchronized void execOperation(RemoveOperation removeOp) {
-	        if (this.log.add(removeOp)) {
-	            this.recipes.remove(removeOp.getRecipeTitle());
-	        }
-	    }
+	/**
+	 * When an operation is retrieved from a different peer, it is executed by (in this case)
+	 * adding the recipe and remembering the operation in the log.
+	 * Only the log segment of the operation's host is locked, so sessions with
+	 * different partners can execute operations concurrently.
+	 */
+	public void execOperation(AddOperation addOp) {
+		synchronized (log.getHostLock(addOp.getTimestamp().getHostid())) {
+			if (this.log.add(addOp)) {
+				this.recipes.add(addOp.getRecipe());
+			}
+		}
+	}
+
+	/**
+	 * When an operation is retrieved from a different peer, it is executed by (in this case)
+	 * removing the recipe and remembering the operation in the log.
+	 */
+	public void execOperation(RemoveOperation removeOp) {
+		synchronized (log.getHostLock(removeOp.getTimestamp().getHostid())) {
+			if (this.log.add(removeOp)) {
+				this.recipes.remove(removeOp.getRecipeTitle());
+			}
+		}
+	}
+
+	/**
+	 * Executes, in order, a list of operations retrieved from a different peer.
+	 * The log segments of all the hosts involved are locked once for the whole
+	 * list instead of once per operation.
+	 */
+	public void execOperations(List<Operation> ops) {
+		// operations already in the log are discarded before taking any lock
+		final List<Operation> newOps = new ArrayList<Operation>(ops.size());
+		Map<String, Long> lastSeqnumbers = new TreeMap<String, Long>();
+		for (Operation op : ops) {
+			String host = op.getTimestamp().getHostid();
+			Long last = lastSeqnumbers.get(host);
+			if (last == null) {
+				last = log.lastSeqnumber(host);
+				lastSeqnumbers.put(host, last);
+			}
+			if (op.getTimestamp().getSeqnumber() > last) {
+				newOps.add(op);
+			}
+		}
+		if (newOps.isEmpty()) {
+			return;
+		}
+		// log and recipes are updated in bulk (each log segment and the recipes are locked once)
+		withHostLocks(new ArrayList<String>(lastSeqnumbers.keySet()), 0, new Runnable() {
+			public void run() {
+				recipes.apply(log.addAll(newOps));
+			}
+		});
+	}
+
+	/**
+	 * Takes a consistent snapshot of the recipes: the log segments of all the
+	 * hosts are locked while the recipes are copied, so the snapshot includes
+	 * exactly the operations received by the log up to the snapshot's summary.
+	 * @return snapshot
+	 */
+	public Snapshot snapshot() {
+		final Snapshot snapshot = new Snapshot();
+		withHostLocks(sortedParticipantIds(), 0, new Runnable() {
+			public void run() {
+				snapshot.recipes = recipes.toList();
+				snapshot.summary = logSummary();
+			}
+		});
+		return snapshot;
+	}
+
+	/**
+	 * Must be called holding the locks of all the log segments
+	 * @return summary of the operations received by the log (stored or already
+	 * purged), that is, of the operations executed on the recipes
+	 */
+	private TimestampVector logSummary() {
+		TimestampVector logSummary = new TimestampVector(summary.getParticipantIndex());
+		for (String host : participants.getIds()) {
+			long last = log.lastSeqnumber(host);
+			if (last != Timestamp.NULL_TIMESTAMP_SEQ_NUMBER) {
+				logSummary.updateTimestamp(new Timestamp(host, last));
+			}
+		}
+		return logSummary;
+	}
+
+	/**
+	 * Installs a snapshot of the recipes received from a partner, merging it with
+	 * the local recipes (the log may not have the local operations the snapshot
+	 * misses, so they can not be executed again on top of it). A recipe present
+	 * in only one of them is kept unless the other one has seen (and therefore
+	 * removed) it, according to the timestamp of the operation that added it.
+	 * Afterwards, the operations of the hosts the snapshot is ahead of are
+	 * removed from the log.
+	 * @param snapshotRecipes
+	 * @param snapshotSummary: summary of the operations included in the snapshot
+	 */
+	public void installSnapshot(final List<Recipe> snapshotRecipes, final TimestampVector snapshotSummary) {
+		withHostLocks(sortedParticipantIds(), 0, new Runnable() {
+			public void run() {
+				Recipes installed = new Recipes();
+				for (Recipe recipe : recipes.toList()) {
+					if (!includes(snapshotSummary, recipe.getTimestamp())) {
+						installed.add(recipe);
+					}
+				}
+				for (Recipe recipe : snapshotRecipes) {
+					Recipe local = recipes.get(recipe.getTitle());
+					if (recipe.equals(local)) {
+						installed.add(recipe);
+					} else if (log.lastSeqnumber(recipe.getTimestamp().getHostid()) < recipe.getTimestamp().getSeqnumber()) {
+						// not seen locally: if both recipes were added concurrently, the newest one is kept
+						Recipe kept = installed.get(recipe.getTitle());
+						if (kept == null || isNewer(recipe.getTimestamp(), kept.getTimestamp())) {
+							installed.add(recipe);
+						}
+					}
+				}
+				for (String host : participants.getIds()) {
+					Timestamp last = snapshotSummary.getLast(host);
+					if (last != null && last.getSeqnumber() > log.lastSeqnumber(host)) {
+						log.truncate(host, last.getSeqnumber());
+					}
+				}
+				recipes = installed;
+				summary.updateMax(snapshotSummary);
+			}
+		});
+		if (logStore != null) {
+			// operations removed from the log are only recovered from the snapshot
+			writeCheckpoint(false);
+		}
+	}
+
+	/**
+	 * @return true if the operation with timestamp is included in summary
+	 */
+	private static boolean includes(TimestampVector summary, Timestamp timestamp) {
+		Timestamp last = summary.getLast(timestamp.getHostid());
+		return last != null && timestamp.compare(last) <= 0;
+	}
+
+	/**
+	 * @return true if t1 is newer than t2 (timestamps of different hosts
+	 * with the same sequence number are ordered by host id)
+	 */
+	private static boolean isNewer(Timestamp t1, Timestamp t2) {
+		long compare = t1.compare(t2);
+		return compare > 0 || (compare == 0 && t1.getHostid().compareTo(t2.getHostid()) > 0);
+	}
+
+	private List<String> sortedParticipantIds() {
+		return new ArrayList<String>(new TreeSet<String>(participants.getIds()));
+	}
+
+	/**
+	 * Runs action holding the locks of the log segments of hosts
+	 * (locks are always taken in the order of the host ids)
+	 */
+	private void withHostLocks(List<String> hosts, int lockedHosts, Runnable action) {
+		if (lockedHosts < hosts.size()) {
+			synchronized (log.getHostLock(hosts.get(lockedHosts))) {
+				withHostLocks(hosts, lockedHosts + 1, action);
+			}
+			return;
+		}
+		action.run();
+	}
 
 	// ****************************************************************************
 	// *** operations to get the TSAE data structures. Used to send to evaluation
@@ -192,6 +622,24 @@ public class ServerData {
 	public Recipes getRecipes(){
 		return recipes;
 	}
+	public ExchangeBaselines getExchangeBaselines(){
+		return exchangeBaselines;
+	}
+
+	/**
+	 * Digest of the recipes and summary. Servers with the same digest have
+	 * nothing to exchange in a TSAE session. The ack is left out: it lags
+	 * behind the summary, so servers with the same state rarely have the
+	 * same ack.
+	 * It doesn't take the lock of serverData: the digest of the recipes is
+	 * maintained incrementally and the summary is a copy-on-write vector. A
+	 * digest read while an operation is being applied only makes the
+	 * session go on with a regular exchange.
+	 * @return digest
+	 */
+	public long digest(){
+		return recipes.digest() * 31 + summary.digest();
+	}
 
 	// ******************************
 	// *** getters and setters
@@ -222,6 +670,186 @@ public class ServerData {
 		this.propDegree = propDegree;
 	}
 
+	public int getOperationsPerBatch(){
+		return opsPerBatch;
+	}
+
+	public void setOperationsPerBatch(int opsPerBatch){
+		this.opsPerBatch = opsPerBatch;
+	}
+
+	public int getBytesPerBatch(){
+		return bytesPerBatch;
+	}
+
+	public void setBytesPerBatch(int bytesPerBatch){
+		this.bytesPerBatch = bytesPerBatch;
+	}
+
+	public boolean getDeltaExchange(){
+		return deltaExchange;
+	}
+
+	public void setDeltaExchange(boolean deltaExchange){
+		this.deltaExchange = deltaExchange;
+	}
+
+	public boolean getDigestHandshake(){
+		return digestHandshake;
+	}
+
+	public void setDigestHandshake(boolean digestHandshake){
+		this.digestHandshake = digestHandshake;
+	}
+
+	public boolean getPipelinedSessions(){
+		return pipelinedSessions;
+	}
+
+	public void setPipelinedSessions(boolean pipelinedSessions){
+		this.pipelinedSessions = pipelinedSessions;
+	}
+
+	public boolean getStreamingApply(){
+		return streamingApply;
+	}
+
+	public void setStreamingApply(boolean streamingApply){
+		this.streamingApply = streamingApply;
+	}
+
+	public int getMaxPartnerSessions(){
+		return maxPartnerSessions;
+	}
+
+	public void setMaxPartnerSessions(int maxPartnerSessions){
+		this.maxPartnerSessions = maxPartnerSessions;
+	}
+
+	public boolean getVirtualThreadSessions(){
+		return virtualThreadSessions;
+	}
+
+	public void setVirtualThreadSessions(boolean virtualThreadSessions){
+		this.virtualThreadSessions = virtualThreadSessions;
+	}
+
+	public long getChannelIdleTimeout(){
+		return channelIdleTimeout;
+	}
+
+	public void setChannelIdleTimeout(long channelIdleTimeout){
+		this.channelIdleTimeout = channelIdleTimeout;
+	}
+
+	public TSAEChannelPool getChannels(){
+		return channels;
+	}
+
+	public TSAETransport getTransport(){
+		return transport;
+	}
+
+	/**
+	 * Must be called before startTSAE
+	 * @param transport: opens the connections to partners (null: TCP sockets)
+	 */
+	public void setTransport(TSAETransport transport){
+		this.transport = transport;
+	}
+
+	public Scheduler getScheduler(){
+		return scheduler;
+	}
+
+	/**
+	 * Must be called before startTSAE
+	 * @param scheduler: runs the TSAE timer
+	 */
+	public void setScheduler(Scheduler scheduler){
+		this.scheduler = scheduler;
+	}
+
+	public boolean getAdaptiveSessions(){
+		return adaptiveSessions;
+	}
+
+	public void setAdaptiveSessions(boolean adaptiveSessions){
+		this.adaptiveSessions = adaptiveSessions;
+	}
+
+	public long getMinSessionPeriod(){
+		return minSessionPeriod;
+	}
+
+	public void setMinSessionPeriod(long minSessionPeriod){
+		this.minSessionPeriod = minSessionPeriod;
+	}
+
+	public long getMaxSessionPeriod(){
+		return maxSessionPeriod;
+	}
+
+	public void setMaxSessionPeriod(long maxSessionPeriod){
+		this.maxSessionPeriod = maxSessionPeriod;
+	}
+
+	public String getPartnerSelection(){
+		return partnerSelection;
+	}
+
+	public void setPartnerSelection(String partnerSelection){
+		this.partnerSelection = partnerSelection;
+	}
+
+	public Random getRandom(){
+		return random;
+	}
+
+	public void setRandom(Random random){
+		this.random = random;
+	}
+
+	public PartnerSelector getPartnerSelector(){
+		return partnerSelector;
+	}
+
+	public TSAEMetrics getMetrics(){
+		return metrics;
+	}
+
+	public boolean getMetricsJmx(){
+		return metricsJmx;
+	}
+
+	public void setMetricsJmx(boolean metricsJmx){
+		this.metricsJmx = metricsJmx;
+	}
+
+	public long getMetricsDumpPeriod(){
+		return metricsDumpPeriod;
+	}
+
+	public void setMetricsDumpPeriod(long metricsDumpPeriod){
+		this.metricsDumpPeriod = metricsDumpPeriod;
+	}
+
+	public String getLogDir(){
+		return logDir;
+	}
+
+	public void setLogDir(String logDir){
+		this.logDir = logDir;
+	}
+
+	public int getSnapshotThreshold(){
+		return snapshotThreshold;
+	}
+
+	public void setSnapshotThreshold(int snapshotThreshold){
+		this.snapshotThreshold = snapshotThreshold;
+	}
+
 	public void setSessionDelay(long sessionDelay) {
 		this.sessionDelay = sessionDelay;
 	}
@@ -239,6 +867,14 @@ public class ServerData {
 	public List<Host> getRandomPartners(int num){
 		return participants.getRandomPartners(num);
 	}
+
+	/**
+	 * @param num
+	 * @return num partners chosen by the partner selection strategy
+	 */
+	public List<Host> getPartners(int num){
+		return partnerSelector.select(participants, num);
+	}
 	
 	/**
 	 * waits until the Server is ready to receive TSAE sessions from partner servers   
@@ -261,4 +897,20 @@ public class ServerData {
 	public synchronized void notifyServerConnected(){
 		notifyAll();
 	}
+
+	/**
+	 * Copy of the recipes together with the summary of the operations it includes
+	 */
+	public static class Snapshot {
+		private List<Recipe> recipes;
+		private TimestampVector summary;
+
+		public List<Recipe> getRecipes(){
+			return recipes;
+		}
+
+		public TimestampVector getSummary(){
+			return summary;
+		}
+	}
 }
@@ -23,8 +23,23 @@ package recipes_service;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import recipes_service.tsae.sessions.SessionExecutors;
+import recipes_service.tsae.sessions.TSAEChannel;
 import recipes_service.tsae.sessions.TSAESessionPartnerSide;
 
 /**
@@ -36,7 +51,12 @@ public class ServerPartnerSide  extends Thread{
 	private int port;
 	private ServerData serverData = null;
 	
-	private ServerSocket serverSocket = null;
+	private ServerSocketChannel serverSocket = null;
+
+	// sessions from partners
+	private Selector selector = null;
+	private Semaphore slots;
+	private Queue<Session> parked = new ConcurrentLinkedQueue<Session>();
 
 	boolean servicePublished = false;
 
@@ -63,31 +83,169 @@ public class ServerPartnerSide  extends Thread{
 		serverData.waitServerConnected();
 		
 		// accept remote TSAE connections
-		// starts a new thread for each TSAE sessions from a partner server 
+		// each TSAE session from a partner server is run by a thread of a pool
+		// of at most maxSessions threads. While all of them are busy no more
+		// connections are accepted: they wait in the backlog of the socket
+		// (and partners that don't want to wait time out) 
+		// In virtual threads mode each session is run in its own (virtual) thread, without limit
+		// (if the JVM doesn't support virtual threads, sessions are served as in pool mode)
+		int maxSessions;
+		ExecutorService sessions;
+		if (serverData.getVirtualThreadSessions() && SessionExecutors.virtualThreadsSupported()){
+			maxSessions = Integer.MAX_VALUE;
+			sessions = SessionExecutors.newThreadPerTaskExecutor("TSAEPartnerSideThread");
+		} else {
+			maxSessions = Math.max(1, serverData.getMaxPartnerSessions());
+			sessions = new ThreadPoolExecutor(maxSessions, maxSessions, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+						public Thread newThread(Runnable r) {
+							return new Thread(r, "TSAEPartnerSideThread");
+						}
+					});
+			((ThreadPoolExecutor) sessions).allowCoreThreadTimeOut(true);
+		}
+		slots = new Semaphore(maxSessions);
+		// channels kept open between sessions are closed by the originator after
+		// channelIdleTimeout; here they are kept a while more
+		long idleTimeout = 2 * serverData.getChannelIdleTimeout();
 
-		while (!serverData.end()){
-			try {
-				// accept will block for this amount of time.
-				// After this time a SocketTimeoutException will rise.
+		try {
+			selector = Selector.open();
+			serverSocket.configureBlocking(false);
+			SelectionKey acceptKey = serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+			while (!serverData.end()){
+				// channels whose session ended wait for the next session in the selector
+				Session idle;
+				while ((idle = parked.poll()) != null){
+					try {
+						idle.socketChannel.configureBlocking(false);
+						idle.socketChannel.register(selector, SelectionKey.OP_READ, idle);
+					} catch (IOException e) {
+						idle.close();
+					}
+				}
+				boolean free = slots.availablePermits() > 0;
+				for (SelectionKey key : selector.keys()){
+					if (key == acceptKey){
+						key.interestOps(free ? SelectionKey.OP_ACCEPT : 0);
+					} else if (key.isValid()){
+						Session session = (Session) key.attachment();
+						if (session.channel.idleFor(idleTimeout)){
+							key.cancel();
+							session.close();
+						} else {
+							key.interestOps(free ? SelectionKey.OP_READ : 0);
+						}
+					}
+				}
+				// select will block at most this amount of time (or until a session finishes).
 				// if server should stop it will close and finish.
 				// In other case it will block again. 
-				serverSocket.setSoTimeout(20000);
-				new TSAESessionPartnerSide(serverSocket.accept(), this.serverData).start();
-			} catch (java.net.SocketTimeoutException e){
-				;
-			}catch (IOException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+				selector.select(idleTimeout > 0 ? Math.min(20000, idleTimeout) : 20000);
+
+				// new sessions in channels kept open
+				List<Session> ready = new ArrayList<Session>();
+				for (SelectionKey key : selector.selectedKeys()){
+					if (key != acceptKey && key.isValid() && key.isReadable()){
+						key.cancel();
+						ready.add((Session) key.attachment());
+					}
+				}
+				selector.selectedKeys().clear();
+				if (!ready.isEmpty()){
+					// completes the deregistration of the channels (required to make them blocking)
+					selector.selectNow();
+				}
+				for (Session session : ready){
+					if (slots.tryAcquire()){
+						session.socketChannel.configureBlocking(true);
+						sessions.execute(session);
+					} else {
+						parked.add(session);
+					}
+				}
+
+				// new connections
+				while (slots.tryAcquire()){
+					SocketChannel channel = serverSocket.accept();
+					if (channel == null){
+						slots.release();
+						break;
+					}
+					channel.configureBlocking(true);
+					sessions.execute(new Session(channel));
+				}
 			}
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
+		sessions.shutdown();
 		
 		try {
+			if (selector != null){
+				for (SelectionKey key : selector.keys()){
+					if (key.attachment() != null){
+						((Session) key.attachment()).close();
+					}
+				}
+				selector.close();
+			}
 			serverSocket.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Runs a TSAE session from a partner server and, once it finishes,
+	 * releases its slot and wakes up the acceptor (that might have
+	 * stopped accepting connections). If the session ended normally
+	 * the channel is kept open for the next session of the partner.
+	 */
+	private class Session implements Runnable{
+		private SocketChannel socketChannel;
+		private TSAEChannel channel = null;
+
+		Session(SocketChannel socketChannel){
+			this.socketChannel = socketChannel;
+		}
+
+		public void run() {
+			boolean reusable = false;
+			try {
+				if (channel == null){
+					channel = TSAEChannel.accept(socketChannel.socket());
+				}
+				reusable = new TSAESessionPartnerSide(channel, serverData).session();
+				// in pipelined sessions the partner can start the next session before this
+				// one has read its last message: if it has been read ahead it is served now
+				while (reusable && channel.hasPendingInput() && !serverData.end()){
+					reusable = new TSAESessionPartnerSide(channel, serverData).session();
+				}
+			} catch (IOException e) {
+				//e.printStackTrace();
+			} finally {
+				if (reusable && serverData.getChannelIdleTimeout() > 0 && !serverData.end()){
+					channel.sessionFinished();
+					parked.add(this);
+				} else {
+					close();
+				}
+				slots.release();
+				selector.wakeup();
+			}
+		}
+
+		void close(){
+			try {
+				socketChannel.close();
+			} catch (IOException e) {
+				/* should not be thrown */
+			}
+		}
+	}
 	
 	public int getPort(){
 		return this.port;
@@ -131,8 +289,8 @@ public class ServerPartnerSide  extends Thread{
 		// starts a thread to deal with TSAE sessions from partner servers 
 
 		try {
-			serverSocket = new ServerSocket();
-			serverSocket.setReuseAddress(true);
+			serverSocket = ServerSocketChannel.open();
+			serverSocket.socket().setReuseAddress(true);
 			serverSocket.bind(new InetSocketAddress(port));
 //			serverSocket = new ServerSocket(port);
 //			serverSocket.setReuseAddress(true);
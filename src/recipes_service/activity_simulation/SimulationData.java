@@ -79,6 +79,11 @@ public class SimulationData {
 	//         this computer having the same internal and external IP address) 
 	private boolean localExecution = true;
 	
+	// wire format of the messages exchanged in TSAE sessions:
+	// * true: compact binary encoding (BinaryCodec)
+	// * false: Java serialization
+	private boolean binaryWireFormat = false;
+	
 	
 	public static SimulationData getInstance(){
 		if (data == null){
@@ -259,4 +264,14 @@ public class SimulationData {
 	public void setLocalExecution(boolean localExecution){
 		this.localExecution = localExecution;
 	}
+
+	// wire format of the messages exchanged in TSAE sessions
+	// * true: compact binary encoding
+	// * false: Java serialization
+	public boolean binaryWireFormat(){
+		return this.binaryWireFormat;
+	}
+	public void setBinaryWireFormat(boolean binaryWireFormat){
+		this.binaryWireFormat = binaryWireFormat;
+	}
 }
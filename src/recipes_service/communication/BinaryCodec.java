@@ -0,0 +1,466 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.OperationType;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.ParticipantIndex;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Compact binary encoding of the messages exchanged in TSAE sessions,
+ * used instead of Java serialization when the binary wire format is selected.
+ * 
+ * A stream starts with a header (magic and version) and then contains one
+ * frame per message: a tag followed by the message fields. Sequence numbers
+ * and lengths are encoded as varints, strings are length-prefixed UTF-8 and
+ * host ids are sent only once per stream: afterwards they are referenced by
+ * their position in a dictionary that both sides build while encoding and
+ * decoding.
+ */
+public class BinaryCodec {
+	public static final int MAGIC = 0x54; // 'T'
+	public static final int VERSION = 6;
+
+	// message tags
+	private static final int TAG_AE_REQUEST = 1;
+	private static final int TAG_OPERATION = 2;
+	private static final int TAG_END_TSAE = 3;
+	private static final int TAG_OPERATION_BATCH = 4;
+	private static final int TAG_SNAPSHOT = 5;
+	private static final int TAG_DIGEST = 6;
+
+	// operation tags
+	private static final int OP_ADD = 1;
+	private static final int OP_REMOVE = 2;
+
+	// limits of the lengths read from a stream (larger ones mean that it is corrupt):
+	// bytes of a string and elements of a list, vector or matrix
+	private static final int MAX_STRING_LENGTH = 1 << 24;
+	private static final int MAX_ELEMENTS = 1 << 20;
+
+	/**
+	 * Encodes messages into an output stream
+	 */
+	public static class Encoder {
+		private final DataOutputStream out;
+		private final Map<String, Integer> hostIds = new HashMap<String, Integer>();
+
+		public Encoder(OutputStream outStream) throws IOException{
+			this.out = new DataOutputStream(new BufferedOutputStream(outStream));
+			out.writeByte(MAGIC);
+			out.writeByte(VERSION);
+			out.flush();
+		}
+
+		public void write(Message msg) throws IOException{
+			switch (msg.type()){
+			case AE_REQUEST:
+				MessageAErequest aeRequest = (MessageAErequest) msg;
+				out.writeByte(TAG_AE_REQUEST);
+				writeString(aeRequest.getSenderId());
+				writeVarlong(aeRequest.getVersion());
+				writeVarlong(aeRequest.getHeldVersion());
+				out.writeBoolean(aeRequest.isPipelined());
+				out.writeBoolean(aeRequest.isDelta());
+				if (aeRequest.isDelta()){
+					writeVarlong(aeRequest.getBaseVersion());
+					writeTimestamps(aeRequest.getSummaryDelta());
+					writeVarint(aeRequest.getAckDelta().size());
+					for (Map.Entry<String, List<Timestamp>> row : aeRequest.getAckDelta().entrySet()){
+						writeHostId(row.getKey());
+						writeTimestamps(row.getValue());
+					}
+				} else {
+					writeVector(aeRequest.getSummary());
+					out.writeBoolean(aeRequest.getAck() != null);
+					if (aeRequest.getAck() != null){
+						writeMatrix(aeRequest.getAck());
+					}
+				}
+				break;
+			case OPERATION:
+				out.writeByte(TAG_OPERATION);
+				writeOperation(((MessageOperation) msg).getOperation());
+				break;
+			case END_TSAE:
+				out.writeByte(TAG_END_TSAE);
+				break;
+			case OPERATION_BATCH:
+				List<Operation> ops = ((MessageOperationBatch) msg).getOperations();
+				out.writeByte(TAG_OPERATION_BATCH);
+				writeVarint(ops.size());
+				for (Operation op : ops){
+					writeOperation(op);
+				}
+				break;
+			case SNAPSHOT:
+				MessageSnapshot snapshot = (MessageSnapshot) msg;
+				out.writeByte(TAG_SNAPSHOT);
+				writeVarint(snapshot.getRecipes().size());
+				for (Recipe recipe : snapshot.getRecipes()){
+					writeRecipe(recipe);
+				}
+				out.writeBoolean(snapshot.isLast());
+				if (snapshot.isLast()){
+					writeVector(snapshot.getSummary());
+				}
+				break;
+			case DIGEST:
+				MessageDigest digest = (MessageDigest) msg;
+				out.writeByte(TAG_DIGEST);
+				writeString(digest.getSenderId());
+				out.writeLong(digest.getDigest());
+				break;
+			default:
+				throw new IOException("BinaryCodec: unsupported message type " + msg.type());
+			}
+			// operations (and snapshots) are buffered: the partner does not answer them
+			if (msg.type() != MsgType.OPERATION && msg.type() != MsgType.OPERATION_BATCH && msg.type() != MsgType.SNAPSHOT){
+				out.flush();
+			}
+		}
+
+		public void close() throws IOException{
+			out.close();
+		}
+
+		private void writeVector(TimestampVector vector) throws IOException{
+			vector = vector.clone();
+			ParticipantIndex participants = vector.getParticipantIndex();
+			writeVarint(participants.size());
+			for (int i = 0; i < participants.size(); i++){
+				writeHostId(participants.getId(i));
+				writeVarlong(vector.getSeqnumber(i));
+			}
+		}
+
+		private void writeTimestamps(List<Timestamp> timestamps) throws IOException{
+			writeVarint(timestamps.size());
+			for (Timestamp timestamp : timestamps){
+				writeHostId(timestamp.getHostid());
+				writeVarlong(timestamp.getSeqnumber());
+			}
+		}
+
+		private void writeMatrix(TimestampMatrix matrix) throws IOException{
+			Set<String> nodes = matrix.getNodes();
+			writeVarint(nodes.size());
+			for (String node : nodes){
+				writeHostId(node);
+				writeVector(matrix.getTimestampVector(node));
+			}
+		}
+
+		private void writeOperation(Operation op) throws IOException{
+			if (op.getType() == OperationType.ADD){
+				out.writeByte(OP_ADD);
+				writeTimestamp(op.getTimestamp());
+				writeRecipe(((AddOperation) op).getRecipe());
+			} else {
+				RemoveOperation removeOp = (RemoveOperation) op;
+				out.writeByte(OP_REMOVE);
+				writeTimestamp(op.getTimestamp());
+				writeString(removeOp.getRecipeTitle());
+				writeTimestamp(removeOp.getRecipeTimestamp());
+			}
+		}
+
+		private void writeRecipe(Recipe recipe) throws IOException{
+			writeString(recipe.getTitle());
+			writeString(recipe.getRecipe());
+			writeString(recipe.getAuthor());
+			writeTimestamp(recipe.getTimestamp());
+		}
+
+		private void writeTimestamp(Timestamp timestamp) throws IOException{
+			out.writeBoolean(timestamp != null);
+			if (timestamp != null){
+				writeHostId(timestamp.getHostid());
+				writeVarlong(timestamp.getSeqnumber());
+			}
+		}
+
+		private void writeHostId(String hostId) throws IOException{
+			Integer index = hostIds.get(hostId);
+			if (index != null){
+				writeVarint(index + 1);
+			} else {
+				// 0 announces a new host id, that takes the next position in the dictionary
+				writeVarint(0);
+				writeString(hostId);
+				hostIds.put(hostId, hostIds.size());
+			}
+		}
+
+		private void writeString(String str) throws IOException{
+			if (str == null){
+				writeVarint(0);
+				return;
+			}
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length + 1);
+			out.write(bytes);
+		}
+
+		private void writeVarint(int value) throws IOException{
+			while ((value & ~0x7F) != 0){
+				out.writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			out.writeByte(value);
+		}
+
+		private void writeVarlong(long value) throws IOException{
+			// zigzag encoding: the null timestamp has a negative sequence number
+			long zigzag = (value << 1) ^ (value >> 63);
+			while ((zigzag & ~0x7FL) != 0){
+				out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+				zigzag >>>= 7;
+			}
+			out.writeByte((int) zigzag);
+		}
+	}
+
+	/**
+	 * Decodes messages from an input stream
+	 */
+	public static class Decoder {
+		private final DataInputStream in;
+		private final List<String> hostIds = new ArrayList<String>();
+
+		public Decoder(InputStream inStream) throws IOException{
+			this.in = new DataInputStream(new BufferedInputStream(inStream));
+			int magic = in.readUnsignedByte();
+			int version = in.readUnsignedByte();
+			if (magic != MAGIC || version != VERSION){
+				throw new IOException("BinaryCodec: unsupported stream (magic: " + magic + ", version: " + version + ")");
+			}
+		}
+
+		public Message read() throws IOException{
+			int tag = in.readUnsignedByte();
+			switch (tag){
+			case TAG_AE_REQUEST:
+				String senderId = readString();
+				long version = readVarlong();
+				long heldVersion = readVarlong();
+				boolean pipelined = in.readBoolean();
+				MessageAErequest aeRequest;
+				if (in.readBoolean()){
+					long baseVersion = readVarlong();
+					List<Timestamp> summaryDelta = readTimestamps();
+					int rows = readLength(MAX_ELEMENTS);
+					Map<String, List<Timestamp>> ackDelta = new HashMap<String, List<Timestamp>>();
+					for (int i = 0; i < rows; i++){
+						String node = readHostId();
+						ackDelta.put(node, readTimestamps());
+					}
+					aeRequest = new MessageAErequest(senderId, version, heldVersion, baseVersion, summaryDelta, ackDelta);
+				} else {
+					TimestampVector summary = readVector();
+					TimestampMatrix ack = in.readBoolean() ? readMatrix() : null;
+					aeRequest = new MessageAErequest(senderId, version, heldVersion, summary, ack);
+				}
+				aeRequest.setPipelined(pipelined);
+				return aeRequest;
+			case TAG_OPERATION:
+				return new MessageOperation(readOperation());
+			case TAG_END_TSAE:
+				return new MessageEndTSAE();
+			case TAG_OPERATION_BATCH:
+				int size = readLength(MAX_ELEMENTS);
+				List<Operation> ops = new ArrayList<Operation>(size);
+				for (int i = 0; i < size; i++){
+					ops.add(readOperation());
+				}
+				return new MessageOperationBatch(ops);
+			case TAG_SNAPSHOT:
+				int recipesSize = readLength(MAX_ELEMENTS);
+				List<Recipe> recipes = new ArrayList<Recipe>(recipesSize);
+				for (int i = 0; i < recipesSize; i++){
+					recipes.add(readRecipe());
+				}
+				return new MessageSnapshot(recipes, in.readBoolean() ? readVector() : null);
+			case TAG_DIGEST:
+				String digestSenderId = readString();
+				return new MessageDigest(digestSenderId, in.readLong());
+			default:
+				throw new IOException("BinaryCodec: unknown message tag " + tag);
+			}
+		}
+
+		/**
+		 * @return number of bytes that can be read without blocking (buffered included)
+		 * @throws IOException
+		 */
+		public int available() throws IOException{
+			return in.available();
+		}
+
+		public void close() throws IOException{
+			in.close();
+		}
+
+		private TimestampVector readVector() throws IOException{
+			int size = readLength(MAX_ELEMENTS);
+			List<String> hosts = new ArrayList<String>(size);
+			long[] seqnumbers = new long[size];
+			for (int i = 0; i < size; i++){
+				hosts.add(readHostId());
+				seqnumbers[i] = readVarlong();
+			}
+			return TimestampVector.of(hosts, seqnumbers);
+		}
+
+		private List<Timestamp> readTimestamps() throws IOException{
+			int size = readLength(MAX_ELEMENTS);
+			List<Timestamp> timestamps = new ArrayList<Timestamp>(size);
+			for (int i = 0; i < size; i++){
+				String hostId = readHostId();
+				timestamps.add(new Timestamp(hostId, readVarlong()));
+			}
+			return timestamps;
+		}
+
+		private TimestampMatrix readMatrix() throws IOException{
+			TimestampMatrix matrix = new TimestampMatrix();
+			int size = readLength(MAX_ELEMENTS);
+			for (int i = 0; i < size; i++){
+				String node = readHostId();
+				matrix.update(node, readVector());
+			}
+			return matrix;
+		}
+
+		private Operation readOperation() throws IOException{
+			int opTag = in.readUnsignedByte();
+			Timestamp timestamp = readTimestamp();
+			switch (opTag){
+			case OP_ADD:
+				return new AddOperation(readRecipe(), timestamp);
+			case OP_REMOVE:
+				String recipeTitle = readString();
+				return new RemoveOperation(recipeTitle, readTimestamp(), timestamp);
+			default:
+				throw new IOException("BinaryCodec: unknown operation tag " + opTag);
+			}
+		}
+
+		private Recipe readRecipe() throws IOException{
+			String title = readString();
+			String recipe = readString();
+			String author = readString();
+			return new Recipe(title, recipe, author, readTimestamp());
+		}
+
+		private Timestamp readTimestamp() throws IOException{
+			if (!in.readBoolean()){
+				return null;
+			}
+			String hostId = readHostId();
+			return new Timestamp(hostId, readVarlong());
+		}
+
+		private String readHostId() throws IOException{
+			int index = readVarint();
+			if (index == 0){
+				String hostId = readString();
+				hostIds.add(hostId);
+				return hostId;
+			}
+			if (index < 0 || index > hostIds.size()){
+				throw new IOException("BinaryCodec: unknown host reference " + index);
+			}
+			return hostIds.get(index - 1);
+		}
+
+		private String readString() throws IOException{
+			int length = readLength(MAX_STRING_LENGTH + 1);
+			if (length == 0){
+				return null;
+			}
+			byte[] bytes = new byte[length - 1];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Reads a length (or number of elements) and checks it, before anything
+		 * is allocated for it
+		 * @param max: maximum length
+		 * @return the length read
+		 * @throws StreamCorruptedException if it is negative or greater than max
+		 * @throws IOException
+		 */
+		private int readLength(int max) throws IOException{
+			int length = readVarint();
+			if (length < 0 || length > max){
+				throw new StreamCorruptedException("BinaryCodec: invalid length " + length);
+			}
+			return length;
+		}
+
+		private int readVarint() throws IOException{
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7){
+				int b = in.readUnsignedByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0){
+					return value;
+				}
+			}
+			throw new IOException("BinaryCodec: malformed varint");
+		}
+
+		private long readVarlong() throws IOException{
+			long zigzag = 0;
+			for (int shift = 0; shift < 64; shift += 7){
+				int b = in.readUnsignedByte();
+				zigzag |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0){
+					return (zigzag >>> 1) ^ -(zigzag & 1);
+				}
+			}
+			throw new IOException("BinaryCodec: malformed varint");
+		}
+	}
+}
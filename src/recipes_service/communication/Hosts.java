@@ -60,6 +60,16 @@ public class Hosts {
 	 * @return
 	 */
 	public List<Host> getRandomPartners(int num){
+		return getRandomPartners(num, rnd);
+	}
+
+	/**
+	 * Returns a list of num random partners
+	 * @param num
+	 * @param rnd: source of the random choices
+	 * @return
+	 */
+	public List<Host> getRandomPartners(int num, Random rnd){
 		List<Host> v = new Vector<Host>();
 
 		if (nodes.size() == 1 || num < 1){
@@ -82,6 +92,19 @@ public class Hosts {
 		return v;		
 	}
 
+	/**
+	 * @return a new list with all the nodes except the local one
+	 */
+	public List<Host> getPartners(){
+		List<Host> partners = new Vector<Host>(nodes);
+		partners.remove(localNode);
+		return partners;
+	}
+
+	public Host getLocalNode(){
+		return localNode;
+	}
+
 	public List<String> getIds(){
 		return listIds;
 	}
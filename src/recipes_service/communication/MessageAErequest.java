@@ -21,7 +21,10 @@
 package recipes_service.communication;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 
+import recipes_service.tsae.data_structures.Timestamp;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
 
@@ -29,16 +32,60 @@ import recipes_service.tsae.data_structures.TimestampVector;
  * @author Joan-Manuel Marques
  * December 2012
  *
+ * When the delta exchange is activated, the request also identifies its sender
+ * and the version of the summary and ack it carries, and it can carry only the
+ * entries that changed since a previous version (baseVersion) instead of the
+ * full summary and ack (see ExchangeBaselines).
+ *
+ * A pipelined request asks the partner to answer immediately with its own
+ * summary and ack, and then both servers send their operations at the same time.
  */
 public class MessageAErequest extends Message implements Serializable{
 	private static final long serialVersionUID = 3626351664901270873L;
+	public static final long NO_VERSION = -1;
+
 	private TimestampVector summary;
 	private TimestampMatrix ack;
 
+	// delta exchange
+	private String senderId;
+	private long version = NO_VERSION;
+	// version of the receiver's summary and ack that the sender holds
+	private long heldVersion = NO_VERSION;
+	// version the delta is relative to
+	private long baseVersion = NO_VERSION;
+	private List<Timestamp> summaryDelta;
+	private Map<String, List<Timestamp>> ackDelta;
+
+	// pipelined session
+	private boolean pipelined = false;
+
 	public MessageAErequest (TimestampVector summary, TimestampMatrix ack){
 		this.summary = summary;
 		this.ack = ack;
 	}
+
+	/**
+	 * Request carrying the full summary and ack
+	 */
+	public MessageAErequest (String senderId, long version, long heldVersion, TimestampVector summary, TimestampMatrix ack){
+		this(summary, ack);
+		this.senderId = senderId;
+		this.version = version;
+		this.heldVersion = heldVersion;
+	}
+
+	/**
+	 * Request carrying only the entries of summary and ack that changed since baseVersion
+	 */
+	public MessageAErequest (String senderId, long version, long heldVersion, long baseVersion, List<Timestamp> summaryDelta, Map<String, List<Timestamp>> ackDelta){
+		this.senderId = senderId;
+		this.version = version;
+		this.heldVersion = heldVersion;
+		this.baseVersion = baseVersion;
+		this.summaryDelta = summaryDelta;
+		this.ackDelta = ackDelta;
+	}
 	
 	public TimestampVector getSummary(){
 		return this.summary;
@@ -46,6 +93,34 @@ public class MessageAErequest extends Message implements Serializable{
 	public TimestampMatrix getAck(){
 		return this.ack;
 	}
+
+	public String getSenderId(){
+		return this.senderId;
+	}
+	public long getVersion(){
+		return this.version;
+	}
+	public long getHeldVersion(){
+		return this.heldVersion;
+	}
+	public long getBaseVersion(){
+		return this.baseVersion;
+	}
+	public boolean isDelta(){
+		return this.summaryDelta != null;
+	}
+	public List<Timestamp> getSummaryDelta(){
+		return this.summaryDelta;
+	}
+	public Map<String, List<Timestamp>> getAckDelta(){
+		return this.ackDelta;
+	}
+	public boolean isPipelined(){
+		return this.pipelined;
+	}
+	public void setPipelined(boolean pipelined){
+		this.pipelined = pipelined;
+	}
 	
 	public MsgType type(){
 		return MsgType.AE_REQUEST;
@@ -53,6 +128,11 @@ public class MessageAErequest extends Message implements Serializable{
 
 	@Override
 	public String toString() {
+		if (isDelta()){
+			return "MessageAErequest [sender=" + senderId + ", version=" + version
+					+ ", baseVersion=" + baseVersion + ", summaryDelta=" + summaryDelta
+					+ ", ackDelta=" + ackDelta + "]";
+		}
 		 String str = "MessageAErequest [summary=" + summary;
 		 if (ack != null){
 			 str += ", ack=" + ack;
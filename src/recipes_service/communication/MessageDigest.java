@@ -0,0 +1,58 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package recipes_service.communication;
+
+/**
+ * Digest of the state of a server (recipes and summary), sent at the
+ * beginning of a TSAE session: if both servers have the same digest, there
+ * is nothing to exchange and the session ends.
+ */
+public class MessageDigest extends Message{
+
+	private static final long serialVersionUID = 5120956937469861703L;
+	private String senderId;
+	private long digest;
+
+	/**
+	 * @param senderId: id of the server that sends the digest
+	 * @param digest
+	 */
+	public MessageDigest (String senderId, long digest){
+		this.senderId = senderId;
+		this.digest = digest;
+	}
+
+	public String getSenderId(){
+		return this.senderId;
+	}
+
+	public long getDigest(){
+		return this.digest;
+	}
+	
+	public MsgType type(){
+		return MsgType.DIGEST;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageDigest [senderId=" + senderId + ", digest=" + digest + "]";
+	}
+}
@@ -0,0 +1,111 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.OperationType;
+import recipes_service.data.RemoveOperation;
+
+/**
+ * Carries several operations in a single frame
+ */
+public class MessageOperationBatch extends Message implements Serializable{
+	private static final long serialVersionUID = -1622837506124532958L;
+	private List<Operation> operations;
+
+	public MessageOperationBatch (List<Operation> operations){
+		this.operations = operations;
+	}
+	
+	public List<Operation> getOperations(){
+		return this.operations;
+	}
+
+	public MsgType type(){
+		return MsgType.OPERATION_BATCH;
+	}
+
+	/**
+	 * Splits ops into the frames to send in a TSAE session. Each frame
+	 * carries at most maxOps operations and, unless it contains a single
+	 * operation, about maxBytes bytes of recipe data at most.
+	 * With maxOps <= 1 every operation is sent in its own MessageOperation.
+	 * @param ops
+	 * @param maxOps
+	 * @param maxBytes
+	 * @return list of messages
+	 */
+	public static List<Message> frames(List<Operation> ops, int maxOps, int maxBytes){
+		List<Message> frames = new ArrayList<Message>();
+		if (maxOps <= 1){
+			for (Operation op : ops){
+				frames.add(new MessageOperation(op));
+			}
+			return frames;
+		}
+		List<Operation> batch = new ArrayList<Operation>();
+		int bytes = 0;
+		for (Operation op : ops){
+			int size = estimatedSize(op);
+			if (!batch.isEmpty() && (batch.size() == maxOps || bytes + size > maxBytes)){
+				frames.add(new MessageOperationBatch(batch));
+				batch = new ArrayList<Operation>();
+				bytes = 0;
+			}
+			batch.add(op);
+			bytes += size;
+		}
+		if (!batch.isEmpty()){
+			frames.add(new MessageOperationBatch(batch));
+		}
+		return frames;
+	}
+
+	/**
+	 * @param op
+	 * @return approximate size of op (dominated by the recipe strings)
+	 */
+	private static int estimatedSize(Operation op){
+		int size = 16;
+		if (op.getType() == OperationType.ADD){
+			size += length(((AddOperation) op).getRecipe().getTitle());
+			size += length(((AddOperation) op).getRecipe().getRecipe());
+			size += length(((AddOperation) op).getRecipe().getAuthor());
+		} else {
+			size += length(((RemoveOperation) op).getRecipeTitle());
+		}
+		return size;
+	}
+
+	private static int length(String str){
+		return (str == null) ? 0 : str.length();
+	}
+
+	@Override
+	public String toString() {
+		return "MessageOperationBatch [operations=" + operations + "]";
+	}
+}
@@ -0,0 +1,107 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package recipes_service.communication;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.data.Recipe;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Carries a chunk of a snapshot of the recipes of a server. The last chunk
+ * also carries the summary the snapshot corresponds to: the snapshot
+ * includes all the operations in it (and none other).
+ */
+public class MessageSnapshot extends Message implements Serializable{
+	private static final long serialVersionUID = 2650271960837180844L;
+	private List<Recipe> recipes;
+	private TimestampVector summary;
+
+	public MessageSnapshot (List<Recipe> recipes, TimestampVector summary){
+		this.recipes = recipes;
+		this.summary = summary;
+	}
+	
+	public List<Recipe> getRecipes(){
+		return this.recipes;
+	}
+
+	/**
+	 * @return summary of the snapshot (null if this is not the last chunk)
+	 */
+	public TimestampVector getSummary(){
+		return this.summary;
+	}
+
+	public boolean isLast(){
+		return this.summary != null;
+	}
+
+	public MsgType type(){
+		return MsgType.SNAPSHOT;
+	}
+
+	/**
+	 * Splits a snapshot into the chunks to send in a TSAE session. Each
+	 * chunk carries at most maxRecipes recipes and, unless it contains a
+	 * single recipe, about maxBytes bytes of recipe data at most.
+	 * @param recipes
+	 * @param summary
+	 * @param maxRecipes
+	 * @param maxBytes
+	 * @return list of messages (at least one, the last one carrying summary)
+	 */
+	public static List<Message> frames(List<Recipe> recipes, TimestampVector summary, int maxRecipes, int maxBytes){
+		List<Message> frames = new ArrayList<Message>();
+		List<Recipe> chunk = new ArrayList<Recipe>();
+		int bytes = 0;
+		for (Recipe recipe : recipes){
+			int size = estimatedSize(recipe);
+			if (!chunk.isEmpty() && (chunk.size() >= maxRecipes || bytes + size > maxBytes)){
+				frames.add(new MessageSnapshot(chunk, null));
+				chunk = new ArrayList<Recipe>();
+				bytes = 0;
+			}
+			chunk.add(recipe);
+			bytes += size;
+		}
+		frames.add(new MessageSnapshot(chunk, summary));
+		return frames;
+	}
+
+	/**
+	 * @param recipe
+	 * @return approximate size of recipe (dominated by its strings)
+	 */
+	private static int estimatedSize(Recipe recipe){
+		return 16 + length(recipe.getTitle()) + length(recipe.getRecipe()) + length(recipe.getAuthor());
+	}
+
+	private static int length(String str){
+		return (str == null) ? 0 : str.length();
+	}
+
+	@Override
+	public String toString() {
+		return "MessageSnapshot [recipes=" + recipes + ", summary=" + summary + "]";
+	}
+}
@@ -64,6 +64,10 @@ public class AddOperation extends Operation implements Serializable{
 				+ "]";
 	}
 	@Override
+	public long digest() {
+		return (recipe == null) ? 0 : recipe.digest();
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
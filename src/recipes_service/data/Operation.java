@@ -44,4 +44,9 @@ public abstract class Operation implements Serializable{
 	}
 	
 	public abstract OperationType getType();
+
+	/**
+	 * @return hash of the fields compared by equals (equal operations have the same digest)
+	 */
+	public abstract long digest();
 }
@@ -21,6 +21,7 @@
 package recipes_service.data;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 import recipes_service.tsae.data_structures.Timestamp;
 
@@ -32,6 +33,11 @@ import recipes_service.tsae.data_structures.Timestamp;
 public class Recipe implements Serializable{
 	
 	private static final long serialVersionUID = -4586737429673625621L;
+
+	// FNV-1a 64-bit parameters (digests)
+	static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	static final long FNV_PRIME = 0x100000001b3L;
+
 	private String title;
 	private String recipe;
 	private String author;
@@ -59,6 +65,35 @@ public class Recipe implements Serializable{
 	public Timestamp getTimestamp() {
 		return timestamp;
 	}
+
+	/**
+	 * @return 64-bit hash (FNV-1a) of the fields of the recipe (equal recipes have the same digest)
+	 */
+	public long digest(){
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, title);
+		hash = hash(hash, recipe);
+		hash = hash(hash, author);
+		return hash(hash, timestamp);
+	}
+
+	static long hash(long hash, String str){
+		if (str != null){
+			for (byte b : str.getBytes(StandardCharsets.UTF_8)){
+				hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+			}
+		}
+		// separator: fields "ab", "c" do not hash as "a", "bc"
+		return (hash ^ 0xff) * FNV_PRIME;
+	}
+
+	static long hash(long hash, Timestamp timestamp){
+		if (timestamp != null){
+			hash = hash(hash, timestamp.getHostid());
+			hash = (hash ^ timestamp.getSeqnumber()) * FNV_PRIME;
+		}
+		return hash;
+	}
 	
 	
 	@Override
@@ -17,13 +17,21 @@
 * You should have received a copy of the GNU General Public License
 * along with this code.  If not, see <http://www.gnu.org/licenses/>.
 */
-
 package recipes_service.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * @author Joan-Manuel Marques
@@ -33,43 +41,117 @@ import java.util.TreeMap;
 public class Recipes implements Serializable{
 	
 	private static final long serialVersionUID = -8117147242301640951L;
-	private TreeMap<String,Recipe> recipes = null;
+
+	/**
+	 * The serialized form is kept as a TreeMap from title to recipe,
+	 * as in previous versions.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("recipes", TreeMap.class)
+	};
+
+	/**
+	 * Recipes ordered by title. Reads (get, contains, toString) do not take
+	 * any lock; writers are serialized by the lock of this object, that also
+	 * guards the titles array (used to sample a random title in constant time)
+	 * and is taken by the operations that need a consistent view of all the
+	 * recipes (equals, clone, toList).
+	 */
+	private transient ConcurrentSkipListMap<String,Recipe> recipes = null;
+	// titles of the recipes (in no particular order) and position of each one
+	private transient List<String> titles;
+	private transient Map<String,Integer> positions;
+	// sum of the hashes of the recipes, updated as they are added and removed
+	private transient volatile long digest = 0;
 	
 	static Random rnd = new Random();
 	
 	
 	public Recipes(){
-		this.recipes = new TreeMap<String,Recipe> (); 
+		this.recipes = new ConcurrentSkipListMap<String,Recipe> (); 
+		this.titles = new ArrayList<String>();
+		this.positions = new HashMap<String,Integer>();
 	}
 	
 	public synchronized void add(Recipe recipe){
-		recipes.put(recipe.getTitle(),recipe);
+		put(recipe);
 	}
 	
 	public synchronized void remove(String recipeTitle){
-		recipes.remove(recipeTitle);
+		delete(recipeTitle);
+	}
+
+	/**
+	 * Executes, in order, a list of operations (adds and removes of recipes)
+	 * taking the lock once for all of them
+	 * @param ops
+	 */
+	public synchronized void apply(List<Operation> ops){
+		for (Operation op : ops){
+			if (op.getType() == OperationType.ADD){
+				put(((AddOperation) op).getRecipe());
+			} else {
+				delete(((RemoveOperation) op).getRecipeTitle());
+			}
+		}
+	}
+
+	private void put(Recipe recipe){
+		Recipe old = recipes.put(recipe.getTitle(),recipe);
+		if (old != null){
+			digest -= old.digest();
+		} else {
+			positions.put(recipe.getTitle(), titles.size());
+			titles.add(recipe.getTitle());
+		}
+		digest += recipe.digest();
+	}
+	
+	private void delete(String recipeTitle){
+		Recipe old = recipes.remove(recipeTitle);
+		if (old != null){
+			digest -= old.digest();
+			// the last title takes the position of the removed one
+			int position = positions.remove(recipeTitle);
+			String last = titles.remove(titles.size() - 1);
+			if (position < titles.size()){
+				titles.set(position, last);
+				positions.put(last, position);
+			}
+		}
 	}
-	public synchronized Recipe get(String recipeTitle){
+	public Recipe get(String recipeTitle){
 		return recipes.get(recipeTitle);
 	}
-	public synchronized boolean contains(String recipeTitle){
+	public boolean contains(String recipeTitle){
 		return recipes.containsKey(recipeTitle);
 	}
 	
-	public synchronized String getRandomRecipeTitle(){
-		if (recipes.isEmpty())
+	public String getRandomRecipeTitle(){
+		return getRandomRecipeTitle(rnd);
+	}
+
+	/**
+	 * @param rnd: source of the random choice
+	 * @return the title of a recipe chosen at random (null if there is none)
+	 */
+	public synchronized String getRandomRecipeTitle(Random rnd){
+		if (titles.isEmpty())
 			return null;
-		int n= (((int)(rnd.nextDouble() *10000))%recipes.size());
-		
-		Iterator<String> it = recipes.keySet().iterator();
-		String result = it.next();
-		for (int i = 0 ; i < n; i++){
-			result = it.next();
-		}
-		return result;
+		return titles.get(rnd.nextInt(titles.size()));
 	}
+
+	/**
+	 * Hash of the recipes. Equal sets of recipes have the same digest;
+	 * it is kept up to date as recipes are added and removed.
+	 * @return digest
+	 */
+	public long digest(){
+		return digest;
+	}
+
 	@Override
-	public synchronized boolean equals(Object obj) {
+	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
 		if (obj == null)
@@ -77,30 +159,26 @@ public class Recipes implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Recipes other = (Recipes) obj;
-		if (recipes == null) {
-			if (other.recipes != null)
-				return false;
-			else 
-				return true;
-		} else {
-			if (recipes.size() != other.recipes.size()){
-				return false;
-			}
-			boolean equal = true;
-			for (Iterator<String> it = recipes.keySet().iterator(); it.hasNext() && equal; ){
-				String rcp = it.next();
-				equal = recipes.get(rcp).equals(other.recipes.get(rcp));
-				if (!equal){
-				}
-			}
-			return equal;
-		}
+		// compared on a consistent copy of each set of recipes (never holding both locks)
+		return toMap().equals(other.toMap());
 	}
 
-	public synchronized String toString(){
+	@Override
+	public int hashCode() {
+		return Long.hashCode(digest);
+	}
+
+	public String toString(){
 		return recipes.toString();
 	}
 	
+	/**
+	 * @return a copy of the recipes, ordered by title
+	 */
+	public synchronized List<Recipe> toList(){
+		return new ArrayList<Recipe>(recipes.values());
+	}
+	
 	public synchronized Recipes clone(){
 		Recipes clone = new Recipes();
 		
@@ -109,4 +187,34 @@ public class Recipes implements Serializable{
 		}
 		return clone;
 	}
+
+	/**
+	 * @return a copy of the recipes, as a map from title to recipe
+	 */
+	private synchronized TreeMap<String,Recipe> toMap(){
+		return new TreeMap<String,Recipe>(recipes);
+	}
+
+	/**
+	 * Serialization
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("recipes", toMap());
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		TreeMap<String,Recipe> map = (TreeMap<String,Recipe>) fields.get("recipes", null);
+		recipes = new ConcurrentSkipListMap<String,Recipe>();
+		titles = new ArrayList<String>();
+		positions = new HashMap<String,Integer>();
+		if (map != null){
+			for (Recipe recipe : map.values()){
+				add(recipe);
+			}
+		}
+	}
 }
@@ -57,6 +57,11 @@ public class RemoveOperation extends Operation implements Serializable{
 				+ timestamp + "]";
 	}
 	@Override
+	public long digest() {
+		long hash = Recipe.hash(Recipe.FNV_OFFSET_BASIS, recipeTitle);
+		return Recipe.hash(hash, recipeTimestamp);
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
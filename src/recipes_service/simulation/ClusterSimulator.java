@@ -0,0 +1,537 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.simulation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import recipes_service.ServerData;
+import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+import util.Scheduler;
+
+/**
+ * Runs an experiment with n servers in a single process, in virtual time,
+ * to measure how fast they converge.
+ * 
+ * Servers are connected by a MemoryTransport and their timers (TSAE sessions
+ * and activity simulation) run in a VirtualClock, so an experiment takes the
+ * time needed to run its TSAE sessions instead of simulationStop + executionStop.
+ * Timer tasks run one after the other; each one ends when the partner side of
+ * its sessions has finished.
+ * 
+ * TSAE and simulation parameters are read from config.properties (as in
+ * SendArgsToTestServer), with these differences:
+ * - disconnections are not simulated (probDisconnect only reduces the activity)
+ * - numSes is the number of partners of each server every sessionPeriod
+ * - connections are not kept between sessions and logDir is ignored (with
+ *   -restarts a temporary one is used)
+ * - the random activity is generated from a seed
+ * 
+ * With -restarts k, the state of the servers is also stored (in a temporary
+ * logDir) and, in the middle of the activity simulation, k servers crash and
+ * are restarted: the state they recover must be the one they had.
+ * 
+ * For each number of servers (and each partner selection strategy given
+ * with -partners, to compare them) it prints the number of operations generated,
+ * the TSAE rounds (sessionPeriods) after the activity simulation needed to have
+ * all the operations in all servers (same summary) and to converge (same
+ * recipes, summary and ack), the number of sessions, the bytes exchanged and
+ * the CPU time used.
+ * 
+ * Scale: each session exchanges the ack of the server (n x n timestamps), so
+ * the cost of a round grows as n^3. Measured in one process (1 CPU) with
+ * wireFormat=binary, probDel=0 and executionStop=3600:
+ * - 100 servers: 10 rounds to converge, 139 MB exchanged, 21 s
+ *   (132 MB and 17 s with deltaExchange=On)
+ * - 200 servers: 11 rounds to converge, 1.26 GB exchanged, 140 s
+ *   (with deltaExchange=On the baselines kept for each partner, n^3 timestamps
+ *   in all, don't fit in a 4 GB heap)
+ * So about 200 servers is the limit of an experiment; 1000 servers would
+ * take hours. wireFormat=java makes sessions several times more expensive.
+ * With the executionStop of config.properties (9 rounds) 100 servers don't
+ * have time to converge, and with probDel > 0 an experiment may never
+ * converge: a remove received before its add is lost.
+ */
+public class ClusterSimulator {
+	// first port of the (simulated) servers
+	private static final int BASE_PORT = 35000;
+
+	private final Properties properties;
+	private final int numServers;
+	private final Random rnd;
+
+	private final VirtualClock clock = new VirtualClock();
+	private final MemoryTransport transport = new MemoryTransport();
+	private final List<ServerData> servers = new ArrayList<ServerData>();
+	private final List<Hosts> participants = new ArrayList<Hosts>();
+
+	// servers restarted in the middle of the activity simulation
+	private int restarts = 0;
+	// directory where the state of the servers is stored (only if they are restarted)
+	private File logDir;
+
+	// results
+	private int operations = 0;
+	// TSAE rounds after the activity simulation (-1: not reached)
+	private int rounds = 0;
+	private int roundsToPropagate = -1;
+	private int roundsToConverge = -1;
+	private long virtualTime;
+	private long cpuTime;
+	private long wallTime;
+	// restarted servers that recovered the state they had before the crash
+	private int recovered = 0;
+
+	public ClusterSimulator(Properties properties, int numServers, long seed){
+		this.properties = properties;
+		this.numServers = numServers;
+		this.rnd = new Random(seed);
+	}
+
+	public static void main(String[] args) {
+		String configFile = "config.properties";
+		List<Integer> numServers = Arrays.asList(10, 100);
+		long seed = 1;
+		// partner selection strategies to compare (null: the one in the configuration file)
+		List<String> partnerSelections = Arrays.asList((String) null);
+		int restarts = 0;
+		Properties properties = new Properties();
+		try {
+			List<String> argsList = Arrays.asList(args);
+			if (argsList.contains("-config")){
+				configFile = args[argsList.indexOf("-config")+1];
+			}
+			if (argsList.contains("-n")){
+				numServers = new ArrayList<Integer>();
+				for (String n : args[argsList.indexOf("-n")+1].split(",")){
+					numServers.add(Integer.valueOf(n.trim()));
+				}
+			}
+			if (argsList.contains("-seed")){
+				seed = Long.parseLong(args[argsList.indexOf("-seed")+1]);
+			}
+			if (argsList.contains("-restarts")){
+				restarts = Integer.parseInt(args[argsList.indexOf("-restarts")+1]);
+			}
+			if (argsList.contains("-partners")){
+				partnerSelections = Arrays.asList(args[argsList.indexOf("-partners")+1].split(","));
+			}
+			properties.load(new FileInputStream(configFile));
+		} catch (IOException e) {
+			System.err.println("--- ClusterSimulator ---> Unable to read " + configFile);
+			System.exit(1);
+		} catch (RuntimeException e) {
+			System.err.println("ClusterSimulator error. Incorrect arguments");
+			System.err.println("optional args:");
+			System.err.println("\t-n <n1,n2,...>: number of servers of each experiment (minimum 2) [default value: 10,100]");
+			System.err.println("\t-config <file>: configuration file [default value: config.properties]");
+			System.err.println("\t-seed <seed>: seed of the simulated activity [default value: 1]");
+			System.err.println("\t-partners <s1,s2,...>: partner selection strategies to compare (random, divergence, leastRecent, overlay) [default value: partnerSelection in the configuration file]");
+			System.err.println("\t-restarts <k>: number of servers that crash and are restarted (recovering their stored state) in the middle of the activity simulation [default value: 0]");
+			System.exit(1);
+		}
+
+		boolean allConverged = true;
+		for (int n : numServers){
+			for (String partnerSelection : partnerSelections){
+				Properties experiment = properties;
+				if (partnerSelection != null){
+					experiment = new Properties();
+					experiment.putAll(properties);
+					experiment.setProperty("partnerSelection", partnerSelection.trim());
+				}
+				ClusterSimulator simulator = new ClusterSimulator(experiment, Math.max(2, n), seed);
+				simulator.setRestarts(restarts);
+				simulator.run();
+				System.out.println(simulator);
+				allConverged &= simulator.isConverged();
+			}
+		}
+		System.exit(allConverged ? 0 : 1);
+	}
+
+	/**
+	 * Runs the experiment: activity simulation during simulationStop and
+	 * then only TSAE sessions until all servers have converged (or executionStop)
+	 */
+	public void run(){
+		long simulationStop = seconds("simulationStop", "300");
+		long executionStop = seconds("executionStop", "180");
+		long sessionDelay = seconds("sessionDelay", "0");
+		long sessionPeriod = seconds("sessionPeriod", "20");
+		long simulationDelay = seconds("simulationDelay", "5");
+		long simulationPeriod = seconds("simulationPeriod", "20");
+
+		SimulationData simulationData = SimulationData.getInstance();
+		simulationData.setBinaryWireFormat("binary".equals(property("wireFormat", "java")));
+		simulationData.connect();
+
+		long startCpu = processCpuTime();
+		long start = System.nanoTime();
+
+		if (restarts > 0){
+			try {
+				logDir = Files.createTempDirectory("tsae-simulation").toFile();
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to create a log directory: " + e.getMessage(), e);
+			}
+		}
+		createServers();
+
+		// activity simulation
+		final List<Scheduler.Task> activities = new ArrayList<Scheduler.Task>();
+		for (int i = 0; i < servers.size(); i++){
+			long delay = (long) (rnd.nextDouble() * 2 * simulationDelay);
+			activities.add(scheduler().scheduleAtFixedRate(new Activity(i), delay, simulationPeriod));
+		}
+		if (restarts > 0){
+			clock.schedule(new Runnable(){
+				public void run() {
+					restartServers();
+				}
+			}, simulationStop / 2);
+		}
+		clock.schedule(new Runnable(){
+			public void run() {
+				for (Scheduler.Task activity : activities){
+					activity.cancel();
+				}
+				checkConvergence();
+			}
+		}, simulationStop);
+
+		// after each round of TSAE sessions (scheduled after the TSAE timers of
+		// the servers: it runs after them) checks if servers have converged
+		final long end = simulationStop;
+		scheduler().scheduleAtFixedRate(new Runnable(){
+			public void run() {
+				if (clock.currentTimeMillis() > end){
+					rounds++;
+					checkConvergence();
+				}
+			}
+		}, sessionDelay, sessionPeriod);
+
+		clock.runUntil(simulationStop + executionStop);
+
+		virtualTime = clock.currentTimeMillis();
+		wallTime = (System.nanoTime() - start) / 1000000;
+		cpuTime = startCpu < 0 ? -1 : (processCpuTime() - startCpu) / 1000000;
+
+		for (ServerData serverData : servers){
+			serverData.stopTSAEsessions();
+			serverData.setEnd();
+		}
+		transport.shutdown();
+		if (logDir != null){
+			delete(logDir);
+		}
+	}
+
+	private void createServers(){
+		String groupId = property("groupId", "groupXX");
+		List<Host> hosts = new ArrayList<Host>();
+		for (int i = 0; i < numServers; i++){
+			Host host = new Host("simulated", BASE_PORT + i, groupId + "@simulated:" + (BASE_PORT + i));
+			servers.add(createServer(host.getId()));
+			hosts.add(host);
+		}
+		for (int i = 0; i < numServers; i++){
+			Hosts hostsOfServer = new Hosts(hosts.get(i));
+			for (Host host : hosts){
+				hostsOfServer.add(host);
+			}
+			participants.add(hostsOfServer);
+			servers.get(i).startTSAE(hostsOfServer);
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return a server with the TSAE parameters of the experiment, added to the transport
+	 * (its TSAE sessions are not started)
+	 */
+	private ServerData createServer(String id){
+		String groupId = property("groupId", "groupXX");
+		ServerData serverData = new ServerData(groupId);
+		serverData.setId(id);
+		// partners (and any other random choice of the sessions) depend on the seed
+		serverData.setRandom(new Random(rnd.nextLong()));
+		serverData.setSessionDelay(seconds("sessionDelay", "0"));
+		serverData.setSessionPeriod(seconds("sessionPeriod", "20"));
+		serverData.setNumberSessions(Integer.parseInt(property("numSes", "1")));
+		serverData.setPropagationDegree(Integer.parseInt(property("propDegree", "0")));
+		serverData.setOperationsPerBatch(Integer.parseInt(property("opsPerBatch", "100")));
+		serverData.setBytesPerBatch(Integer.parseInt(property("bytesPerBatch", "65536")));
+		serverData.setSnapshotThreshold(Integer.parseInt(property("snapshotThreshold", "0")));
+		serverData.setDeltaExchange("On".equals(property("deltaExchange", "Off")));
+		serverData.setDigestHandshake("On".equals(property("digestHandshake", "Off")));
+		serverData.setPipelinedSessions("On".equals(property("pipelinedSessions", "Off")));
+		serverData.setStreamingApply("On".equals(property("streamingApply", "Off")));
+		serverData.setPartnerSelection(property("partnerSelection", "random"));
+		serverData.setAdaptiveSessions("On".equals(property("adaptiveSessions", "Off")));
+		serverData.setMinSessionPeriod(seconds("minSessionPeriod", "5"));
+		serverData.setMaxSessionPeriod(seconds("maxSessionPeriod", "120"));
+		// sessions run one after the other in the thread of the clock;
+		// each connection is served by a thread while it is open
+		serverData.setVirtualThreadSessions(false);
+		serverData.setChannelIdleTimeout(0);
+		serverData.setTransport(transport);
+		serverData.setScheduler(scheduler());
+		if (logDir != null){
+			serverData.setLogDir(logDir.getPath());
+		}
+		transport.add(serverData);
+		return serverData;
+	}
+
+	/**
+	 * Crashes some servers (as many as restarts, chosen at random) and starts
+	 * them again: each one recovers the state stored in logDir, that must be
+	 * the one it had before the crash
+	 */
+	private void restartServers(){
+		List<Integer> chosen = new ArrayList<Integer>();
+		for (int i = 0; i < servers.size(); i++){
+			chosen.add(i);
+		}
+		Collections.shuffle(chosen, rnd);
+		for (int i : chosen.subList(0, Math.min(restarts, chosen.size()))){
+			ServerData crashed = servers.get(i);
+			crashed.stopTSAEsessions();
+			crashed.setEnd();
+
+			ServerData restarted = createServer(crashed.getId());
+			restarted.startTSAE(participants.get(i));
+			servers.set(i, restarted);
+			if (restarted.getRecipes().equals(crashed.getRecipes()) && restarted.getSummary().equals(crashed.getSummary())){
+				recovered++;
+			} else {
+				System.err.println("ClusterSimulator -- " + crashed.getId() + " has not recovered its state after a restart");
+			}
+		}
+	}
+
+	private static void delete(File file){
+		File[] files = file.listFiles();
+		if (files != null){
+			for (File child : files){
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * @return a scheduler that runs tasks in the virtual clock and, after each
+	 * one, waits until the partner side of the sessions it started has finished
+	 */
+	private Scheduler scheduler(){
+		return new Scheduler(){
+			public Task scheduleAtFixedRate(Runnable task, long delay, long period) {
+				return clock.scheduleAtFixedRate(sequential(task), delay, period);
+			}
+
+			public Task schedule(Runnable task, long delay) {
+				return clock.schedule(sequential(task), delay);
+			}
+		};
+	}
+
+	private Runnable sequential(final Runnable task){
+		return new Runnable(){
+			public void run() {
+				task.run();
+				transport.awaitIdle();
+			}
+		};
+	}
+
+	/**
+	 * Records the current round if all servers have received all the operations
+	 * or have converged. Once they have converged the experiment ends.
+	 */
+	private void checkConvergence(){
+		if (roundsToPropagate < 0 && sameDigest(true)){
+			roundsToPropagate = rounds;
+		}
+		if (sameDigest(false)){
+			roundsToConverge = rounds;
+			clock.stop();
+		}
+	}
+
+	/**
+	 * @param summaryOnly
+	 * @return true if all servers have the same summary (summaryOnly) or
+	 * the same recipes, summary and ack
+	 */
+	private boolean sameDigest(boolean summaryOnly){
+		Long first = null;
+		for (ServerData serverData : servers){
+			long digest;
+			synchronized (serverData) {
+				digest = summaryOnly ? serverData.getSummary().digest() : serverData.digest();
+			}
+			if (first == null){
+				first = digest;
+			} else if (first != digest){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Simulates the activity of a server (as ActivitySimulation, without disconnections)
+	 */
+	private class Activity implements Runnable{
+		// position of the server in servers (it changes if the server is restarted)
+		private final int server;
+
+		Activity(int server){
+			this.server = server;
+		}
+
+		public void run(){
+			ServerData serverData = servers.get(server);
+			double probDisconnect = Double.parseDouble(property("probDisconnect", "0"));
+			double probCreate = Double.parseDouble(property("probCreate", "0"));
+			double probDel = Double.parseDouble(property("probDel", "0"));
+			double a = rnd.nextDouble();
+			if (a >= probDisconnect && a < probDisconnect + probCreate){
+				char[] chars = new char[8];
+				for (int i = 0; i < chars.length; i++){
+					chars[i] = (char) ('a' + rnd.nextInt('z' - 'a'));
+				}
+				serverData.addRecipe(String.valueOf(chars), "Content--" + String.valueOf(chars));
+				operations++;
+				serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+			} else if (a >= probDisconnect + probCreate && a < probDisconnect + probCreate + probDel){
+				String recipeTitle = serverData.getRecipes().getRandomRecipeTitle(rnd);
+				if (recipeTitle != null){
+					serverData.removeRecipe(recipeTitle);
+					operations++;
+					serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+				}
+			}
+		}
+	}
+
+	private String property(String key, String defaultValue){
+		return properties.getProperty(key, defaultValue).trim();
+	}
+
+	/**
+	 * @return value of a property in seconds, in milliseconds
+	 */
+	private long seconds(String key, String defaultValue){
+		return Long.parseLong(property(key, defaultValue)) * 1000;
+	}
+
+	/**
+	 * @return CPU time used by the process (nanoseconds), or -1 if it is not available
+	 */
+	private static long processCpuTime(){
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean){
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	public int getOperations(){
+		return operations;
+	}
+
+	/**
+	 * @return TSAE rounds after the activity simulation until all servers
+	 * had all the operations (-1 if they didn't)
+	 */
+	public int getRoundsToPropagate(){
+		return roundsToPropagate;
+	}
+
+	/**
+	 * @return TSAE rounds after the activity simulation until all servers
+	 * converged (-1 if they didn't)
+	 */
+	public int getRoundsToConverge(){
+		return roundsToConverge;
+	}
+
+	/**
+	 * @return true if all servers converged (and restarted servers recovered their state)
+	 */
+	public boolean isConverged(){
+		return roundsToConverge >= 0 && recovered == restarts;
+	}
+
+	/**
+	 * @param restarts: number of servers that crash and are restarted in the
+	 * middle of the activity simulation
+	 */
+	public void setRestarts(int restarts){
+		this.restarts = restarts;
+	}
+
+	public int getRecovered(){
+		return recovered;
+	}
+
+	public long getSessions(){
+		return transport.getConnections();
+	}
+
+	public long getBytes(){
+		return transport.getBytes();
+	}
+
+	public long getCpuTime(){
+		return cpuTime;
+	}
+
+	public String toString(){
+		return "servers: " + numServers
+				+ "  partners: " + property("partnerSelection", "random")
+				+ "  operations: " + operations
+				+ (restarts > 0 ? "  restarts: " + restarts + " (recovered: " + recovered + ")" : "")
+				+ "  rounds to propagate: " + (roundsToPropagate < 0 ? "-" : String.valueOf(roundsToPropagate))
+				+ "  rounds to converge: " + (roundsToConverge < 0 ? "-" : String.valueOf(roundsToConverge))
+				+ "  virtual time: " + (virtualTime / 1000) + " s"
+				+ "  sessions: " + transport.getConnections()
+				+ "  bytes: " + transport.getBytes()
+				+ "  cpu time: " + cpuTime + " ms"
+				+ "  wall time: " + wallTime + " ms";
+	}
+}
@@ -0,0 +1,147 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.simulation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One direction of an in-memory connection: bytes written to its output
+ * stream are read from its input stream (in another thread).
+ * 
+ * The buffer grows as needed, so writes never block. Once closed, the bytes
+ * still buffered can be read and then the input stream reaches its end;
+ * writes fail.
+ */
+class MemoryPipe {
+	private byte[] buffer = new byte[4096];
+	// position of the first buffered byte and number of buffered bytes
+	private int head = 0;
+	private int count = 0;
+	private boolean closed = false;
+
+	// bytes written (shared by all the pipes of a transport)
+	private final AtomicLong bytesWritten;
+
+	private final InputStream in = new InputStream(){
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			return MemoryPipe.this.read(b, off, len);
+		}
+
+		public int available() {
+			return MemoryPipe.this.available();
+		}
+
+		public void close() {
+			MemoryPipe.this.close();
+		}
+	};
+
+	private final OutputStream out = new OutputStream(){
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			MemoryPipe.this.write(b, off, len);
+		}
+
+		public void close() {
+			MemoryPipe.this.close();
+		}
+	};
+
+	/**
+	 * @param bytesWritten: counter of the bytes written to the pipe
+	 */
+	MemoryPipe(AtomicLong bytesWritten){
+		this.bytesWritten = bytesWritten;
+	}
+
+	InputStream getInputStream(){
+		return in;
+	}
+
+	OutputStream getOutputStream(){
+		return out;
+	}
+
+	private synchronized int read(byte[] b, int off, int len) throws IOException{
+		if (len == 0){
+			return 0;
+		}
+		while (count == 0 && !closed){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		if (count == 0){
+			return -1;
+		}
+		int n = Math.min(len, count);
+		int first = Math.min(n, buffer.length - head);
+		System.arraycopy(buffer, head, b, off, first);
+		System.arraycopy(buffer, 0, b, off + first, n - first);
+		head = (head + n) % buffer.length;
+		count -= n;
+		return n;
+	}
+
+	private synchronized void write(byte[] b, int off, int len) throws IOException{
+		if (closed){
+			throw new IOException("Pipe closed");
+		}
+		if (count + len > buffer.length){
+			byte[] larger = new byte[Math.max(2 * buffer.length, count + len)];
+			int first = Math.min(count, buffer.length - head);
+			System.arraycopy(buffer, head, larger, 0, first);
+			System.arraycopy(buffer, 0, larger, first, count - first);
+			buffer = larger;
+			head = 0;
+		}
+		int tail = (head + count) % buffer.length;
+		int first = Math.min(len, buffer.length - tail);
+		System.arraycopy(b, off, buffer, tail, first);
+		System.arraycopy(b, off + first, buffer, 0, len - first);
+		count += len;
+		bytesWritten.addAndGet(len);
+		notifyAll();
+	}
+
+	private synchronized int available(){
+		return count;
+	}
+
+	synchronized void close(){
+		closed = true;
+		notifyAll();
+	}
+}
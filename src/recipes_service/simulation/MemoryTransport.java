@@ -0,0 +1,149 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.tsae.sessions.SessionExecutors;
+import recipes_service.tsae.sessions.TSAEChannel;
+import recipes_service.tsae.sessions.TSAESessionPartnerSide;
+import recipes_service.tsae.sessions.TSAETransport;
+
+/**
+ * Transport between servers running in the same process.
+ * 
+ * Each connection is a pair of in-memory pipes. The partner side of the
+ * connection is served in its own thread, that runs the TSAE sessions of
+ * the connection until it is closed. Bytes written in both directions
+ * and connections opened are counted.
+ */
+public class MemoryTransport implements TSAETransport {
+	// servers that can be connected to (by id)
+	private final Map<String, ServerData> servers = new ConcurrentHashMap<String, ServerData>();
+
+	private final ExecutorService partnerSessions = SessionExecutors.newThreadPerTaskExecutor("SimulatedPartnerSideThread");
+
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+
+	// connections whose partner side is still running
+	private int open = 0;
+
+	/**
+	 * @param serverData: server that will accept connections (its id must be set)
+	 */
+	public void add(ServerData serverData){
+		servers.put(serverData.getId(), serverData);
+	}
+
+	public TSAEChannel connect(Host partner) throws IOException{
+		final ServerData partnerData = servers.get(partner.getId());
+		if (partnerData == null || partnerData.end()){
+			throw new ConnectException("Connection refused: " + partner.getId());
+		}
+		final MemoryPipe toPartner = new MemoryPipe(bytes);
+		final MemoryPipe fromPartner = new MemoryPipe(bytes);
+		final Closeable connection = new Closeable(){
+			public void close() {
+				toPartner.close();
+				fromPartner.close();
+			}
+		};
+		connections.incrementAndGet();
+		opened();
+		partnerSessions.execute(new Runnable(){
+			public void run() {
+				try {
+					TSAEChannel channel = TSAEChannel.accept(toPartner.getInputStream(), fromPartner.getOutputStream(), connection);
+					boolean reusable = true;
+					while (reusable && !partnerData.end()){
+						reusable = new TSAESessionPartnerSide(channel, partnerData).session();
+					}
+				} catch (IOException e) {
+					//e.printStackTrace();
+				} finally {
+					try {
+						connection.close();
+					} catch (IOException e) {
+						/* should not be thrown */
+					}
+					closed();
+				}
+			}
+		});
+		try {
+			return TSAEChannel.connect(partner.getId(), fromPartner.getInputStream(), toPartner.getOutputStream(), connection);
+		} catch (IOException e) {
+			connection.close();
+			throw e;
+		}
+	}
+
+	private synchronized void opened(){
+		open++;
+	}
+
+	private synchronized void closed(){
+		open--;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the partner side of all the connections has finished
+	 * (connections must have been closed by the originators)
+	 */
+	public synchronized void awaitIdle(){
+		while (open > 0){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return bytes sent through the connections (both directions)
+	 */
+	public long getBytes(){
+		return bytes.get();
+	}
+
+	/**
+	 * @return number of connections opened
+	 */
+	public long getConnections(){
+		return connections.get();
+	}
+
+	public void shutdown(){
+		partnerSessions.shutdown();
+	}
+}
@@ -0,0 +1,308 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.simulation;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import recipes_service.ServerData;
+import recipes_service.ServerPartnerSide;
+import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+
+/**
+ * Stress test of the threads that run TSAE sessions: n servers in a single
+ * process, connected by TCP sockets on the loopback interface and with real
+ * timers, run TSAE sessions as often as possible until they converge.
+ * 
+ * Each server starts a session with numSes other servers (by default all of
+ * them: numSes = n - 1) every period milliseconds, so each one receives about
+ * numSes sessions at the same time: far more than maxPartnerSessions. The
+ * operations (adds of recipes) are generated at the beginning, from a seed,
+ * in random servers. It measures how fast servers converge with numSes > 1
+ * in each mode.
+ * 
+ * The experiment is run for each sessionThreads mode requested ('pool' and
+ * 'virtual'), with the other parameters read from config.properties. For
+ * each one it prints the time needed to converge (same recipes and summary
+ * in all servers), the sessions started and served (and how many failed),
+ * and the maximum number of platform threads alive at the same time.
+ * Once the experiment ends, the servers are stopped and the threads of
+ * their sessions must finish.
+ */
+public class SessionStress {
+	// first port of the servers
+	private static final int BASE_PORT = 36000;
+
+	private final Properties properties;
+	private final int numServers;
+	private final int numSes;
+	private final boolean virtualThreads;
+	private final long period;
+	private final int operations;
+	private final long timeout;
+	private final Random rnd;
+
+	private final List<ServerData> servers = new ArrayList<ServerData>();
+
+	// results
+	private long timeToConverge = -1;
+	private long sessions;
+	private long failedSessions;
+	private long servedSessions;
+	private long failedServedSessions;
+	private int peakThreads;
+	private int threadsLeft;
+
+	/**
+	 * @param properties: TSAE parameters
+	 * @param numServers
+	 * @param numSes: number of partners of each server every period
+	 * @param virtualThreads: sessionThreads mode (true: 'virtual'; false: 'pool')
+	 * @param period: period between the TSAE sessions of a server (milliseconds)
+	 * @param operations: number of operations generated
+	 * @param timeout: maximum duration of the experiment (milliseconds)
+	 * @param seed: seed of the operations
+	 */
+	public SessionStress(Properties properties, int numServers, int numSes, boolean virtualThreads, long period, int operations, long timeout, long seed){
+		this.properties = properties;
+		this.numServers = numServers;
+		this.numSes = numSes;
+		this.virtualThreads = virtualThreads;
+		this.period = period;
+		this.operations = operations;
+		this.timeout = timeout;
+		this.rnd = new Random(seed);
+	}
+
+	public static void main(String[] args) {
+		String configFile = "config.properties";
+		int numServers = 20;
+		// (0: all the other servers)
+		int numSes = 0;
+		List<String> modes = Arrays.asList("pool", "virtual");
+		long period = 200;
+		int operations = 400;
+		long timeout = 60;
+		long seed = 1;
+		Properties properties = new Properties();
+		try {
+			List<String> argsList = Arrays.asList(args);
+			if (argsList.contains("-config")){
+				configFile = args[argsList.indexOf("-config")+1];
+			}
+			if (argsList.contains("-n")){
+				numServers = Integer.parseInt(args[argsList.indexOf("-n")+1]);
+			}
+			if (argsList.contains("-numSes")){
+				numSes = Integer.parseInt(args[argsList.indexOf("-numSes")+1]);
+			}
+			if (argsList.contains("-sessionThreads")){
+				modes = Arrays.asList(args[argsList.indexOf("-sessionThreads")+1].split(","));
+			}
+			if (argsList.contains("-period")){
+				period = Long.parseLong(args[argsList.indexOf("-period")+1]);
+			}
+			if (argsList.contains("-ops")){
+				operations = Integer.parseInt(args[argsList.indexOf("-ops")+1]);
+			}
+			if (argsList.contains("-timeout")){
+				timeout = Long.parseLong(args[argsList.indexOf("-timeout")+1]);
+			}
+			if (argsList.contains("-seed")){
+				seed = Long.parseLong(args[argsList.indexOf("-seed")+1]);
+			}
+			properties.load(new FileInputStream(configFile));
+		} catch (IOException e) {
+			System.err.println("--- SessionStress ---> Unable to read " + configFile);
+			System.exit(1);
+		} catch (RuntimeException e) {
+			System.err.println("SessionStress error. Incorrect arguments");
+			System.err.println("optional args:");
+			System.err.println("\t-n <n>: number of servers (minimum 2) [default value: 20]");
+			System.err.println("\t-config <file>: configuration file [default value: config.properties]");
+			System.err.println("\t-numSes <n>: number of partners of each server every period [default value: n - 1]");
+			System.err.println("\t-sessionThreads <m1,m2>: sessionThreads modes to compare (pool, virtual) [default value: pool,virtual]");
+			System.err.println("\t-period <ms>: period between the TSAE sessions of a server [default value: 200]");
+			System.err.println("\t-ops <n>: number of operations generated [default value: 400]");
+			System.err.println("\t-timeout <s>: maximum duration of each experiment [default value: 60]");
+			System.err.println("\t-seed <seed>: seed of the operations [default value: 1]");
+			System.exit(1);
+		}
+
+		boolean allConverged = true;
+		for (String mode : modes){
+			int servers = Math.max(2, numServers);
+			int partners = (numSes <= 0) ? servers - 1 : Math.min(numSes, servers - 1);
+			SessionStress stress = new SessionStress(properties, servers, partners, "virtual".equals(mode.trim()),
+					period, operations, timeout * 1000, seed);
+			try {
+				stress.run();
+			} catch (InterruptedException e) {
+				System.exit(1);
+			}
+			System.out.println(stress);
+			allConverged &= stress.isConverged();
+		}
+		System.exit(allConverged ? 0 : 1);
+	}
+
+	/**
+	 * Runs the experiment: starts the servers, generates the operations and
+	 * waits until the servers converge (or timeout)
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException{
+		SimulationData simulationData = SimulationData.getInstance();
+		simulationData.setBinaryWireFormat("binary".equals(property("wireFormat", "java")));
+		simulationData.connect();
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int threadsBefore = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+
+		createServers();
+		for (int i = 0; i < operations; i++){
+			servers.get(rnd.nextInt(servers.size())).addRecipe("recipe " + i, "recipe " + i + " of the stress test");
+		}
+
+		long start = System.currentTimeMillis();
+		while (System.currentTimeMillis() - start < timeout){
+			Thread.sleep(20);
+			if (converged()){
+				timeToConverge = System.currentTimeMillis() - start;
+				break;
+			}
+		}
+		peakThreads = threads.getPeakThreadCount() - threadsBefore;
+
+		for (ServerData serverData : servers){
+			sessions += serverData.getMetrics().getSessions();
+			failedSessions += serverData.getMetrics().getFailedSessions();
+			servedSessions += serverData.getMetrics().getServedSessions();
+			failedServedSessions += serverData.getMetrics().getFailedServedSessions();
+			serverData.stopTSAEsessions();
+			serverData.setEnd();
+		}
+		// sessions in progress finish (or fail) and the threads that ran them end
+		// (partner sides notice that the server has ended in at most 20 seconds)
+		long stop = System.currentTimeMillis();
+		do {
+			Thread.sleep(100);
+			threadsLeft = threads.getThreadCount() - threadsBefore;
+		} while (threadsLeft > 0 && System.currentTimeMillis() - stop < 30000);
+	}
+
+	private void createServers() throws InterruptedException{
+		String groupId = property("groupId", "groupXX");
+		List<Host> hosts = new ArrayList<Host>();
+		int port = BASE_PORT;
+		for (int i = 0; i < numServers; i++){
+			ServerData serverData = createServer(groupId);
+			ServerPartnerSide partnerSide = new ServerPartnerSide(port, serverData);
+			partnerSide.setDaemon(true);
+			partnerSide.start();
+			partnerSide.waitServicePublished();
+			port = partnerSide.getPort() + 1;
+			Host host = new Host("127.0.0.1", partnerSide.getPort(), groupId + "@127.0.0.1:" + partnerSide.getPort());
+			serverData.setId(host.getId());
+			servers.add(serverData);
+			hosts.add(host);
+		}
+		for (int i = 0; i < numServers; i++){
+			Hosts hostsOfServer = new Hosts(hosts.get(i));
+			for (Host host : hosts){
+				hostsOfServer.add(host);
+			}
+			servers.get(i).startTSAE(hostsOfServer);
+			servers.get(i).notifyServerConnected();
+		}
+	}
+
+	/**
+	 * @param groupId
+	 * @return a server with the TSAE parameters of the experiment
+	 * (its TSAE sessions are not started)
+	 */
+	private ServerData createServer(String groupId){
+		ServerData serverData = new ServerData(groupId);
+		serverData.setRandom(new Random(rnd.nextLong()));
+		serverData.setSessionDelay(period);
+		serverData.setSessionPeriod(period);
+		serverData.setNumberSessions(numSes);
+		serverData.setPropagationDegree(Integer.parseInt(property("propDegree", "0")));
+		serverData.setOperationsPerBatch(Integer.parseInt(property("opsPerBatch", "100")));
+		serverData.setBytesPerBatch(Integer.parseInt(property("bytesPerBatch", "65536")));
+		serverData.setDeltaExchange("On".equals(property("deltaExchange", "Off")));
+		serverData.setDigestHandshake("On".equals(property("digestHandshake", "Off")));
+		serverData.setPipelinedSessions("On".equals(property("pipelinedSessions", "Off")));
+		serverData.setStreamingApply("On".equals(property("streamingApply", "Off")));
+		serverData.setMaxPartnerSessions(Integer.parseInt(property("maxPartnerSessions", "8")));
+		serverData.setVirtualThreadSessions(virtualThreads);
+		serverData.setChannelIdleTimeout(Long.parseLong(property("channelIdleTimeout", "0")) * 1000);
+		return serverData;
+	}
+
+	/**
+	 * @return true if all servers have the same recipes and summary
+	 */
+	private boolean converged(){
+		ServerData first = servers.get(0);
+		for (ServerData serverData : servers){
+			if (!serverData.getSummary().equals(first.getSummary()) || !serverData.getRecipes().equals(first.getRecipes())){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the servers converged and the threads of their sessions ended
+	 */
+	public boolean isConverged(){
+		return timeToConverge >= 0 && threadsLeft <= 0;
+	}
+
+	private String property(String key, String defaultValue){
+		return properties.getProperty(key, defaultValue).trim();
+	}
+
+	public String toString(){
+		return "sessionThreads: " + (virtualThreads ? "virtual" : "pool")
+				+ "  servers: " + numServers
+				+ "  numSes: " + numSes
+				+ "  maxPartnerSessions: " + property("maxPartnerSessions", "8")
+				+ "  operations: " + operations
+				+ "  time to converge: " + (timeToConverge < 0 ? "-" : timeToConverge + " ms")
+				+ "  sessions: " + sessions + " (failed: " + failedSessions + ")"
+				+ "  served: " + servedSessions + " (failed: " + failedServedSessions + ")"
+				+ "  peak threads: " + peakThreads
+				+ "  threads left: " + Math.max(0, threadsLeft);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.simulation;
+
+import java.util.PriorityQueue;
+
+import util.Scheduler;
+
+/**
+ * Scheduler that runs tasks in virtual time.
+ * 
+ * Tasks are not run by themselves: runUntil runs them in the calling thread,
+ * in order of their scheduled time (and of scheduling for the same time),
+ * advancing the time of the clock to the time of each one. The time between
+ * tasks doesn't pass in real time.
+ */
+public class VirtualClock implements Scheduler {
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	// current time (milliseconds)
+	private long now = 0;
+	// order of scheduling (to keep it among events scheduled for the same time)
+	private long sequence = 0;
+	private boolean stopped = false;
+
+	/**
+	 * @return current time (milliseconds)
+	 */
+	public synchronized long currentTimeMillis(){
+		return now;
+	}
+
+	public Task scheduleAtFixedRate(Runnable task, long delay, long period){
+		if (period <= 0){
+			throw new IllegalArgumentException("Non-positive period.");
+		}
+		return schedule(task, delay, period);
+	}
+
+	/**
+	 * Runs task once after delay
+	 * @param task
+	 * @param delay (milliseconds)
+	 * @return the scheduled task (to cancel it)
+	 */
+	public Task schedule(Runnable task, long delay){
+		return schedule(task, delay, 0);
+	}
+
+	private synchronized Task schedule(Runnable task, long delay, long period){
+		if (delay < 0){
+			throw new IllegalArgumentException("Negative delay.");
+		}
+		Event event = new Event(task, now + delay, period);
+		add(event);
+		return event;
+	}
+
+	private synchronized void add(Event event){
+		event.sequence = sequence++;
+		events.add(event);
+	}
+
+	/**
+	 * Runs the tasks scheduled up to time (included), including the ones they
+	 * schedule, and advances the clock to time. If the clock is stopped it
+	 * returns once the running task finishes (without advancing it).
+	 * @param time (milliseconds)
+	 */
+	public void runUntil(long time){
+		while (true){
+			Event event;
+			synchronized (this){
+				event = events.peek();
+				if (stopped){
+					return;
+				}
+				if (event == null || event.time > time){
+					now = Math.max(now, time);
+					return;
+				}
+				events.poll();
+				if (event.cancelled){
+					continue;
+				}
+				now = event.time;
+			}
+			event.task.run();
+			if (event.period > 0){
+				synchronized (this){
+					if (!event.cancelled){
+						event.time += event.period;
+						add(event);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes runUntil return once the running task finishes
+	 */
+	public synchronized void stop(){
+		stopped = true;
+	}
+
+	private class Event implements Task, Comparable<Event>{
+		private final Runnable task;
+		private long time;
+		private final long period;
+		private long sequence;
+		private boolean cancelled = false;
+
+		Event(Runnable task, long time, long period){
+			this.task = task;
+			this.time = time;
+			this.period = period;
+		}
+
+		public void cancel(){
+			synchronized (VirtualClock.this){
+				cancelled = true;
+			}
+		}
+
+		public int compareTo(Event other){
+			if (time != other.time){
+				return time < other.time ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
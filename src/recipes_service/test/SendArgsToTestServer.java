@@ -133,8 +133,25 @@ public class SendArgsToTestServer {
 			paramsServer.put("serverBasePort",properties.getProperty("serverBasePort"));
 			paramsServer.put("sessionDelay",properties.getProperty("sessionDelay"));
 			paramsServer.put("sessionPeriod",properties.getProperty("sessionPeriod"));
+			paramsServer.put("adaptiveSessions",properties.getProperty("adaptiveSessions", "Off"));
+			paramsServer.put("minSessionPeriod",properties.getProperty("minSessionPeriod", "5"));
+			paramsServer.put("maxSessionPeriod",properties.getProperty("maxSessionPeriod", "120"));
+			paramsServer.put("partnerSelection",properties.getProperty("partnerSelection", "random"));
 			paramsServer.put("numSes",properties.getProperty("numSes"));
 			paramsServer.put("propDegree",properties.getProperty("propDegree"));
+			paramsServer.put("opsPerBatch",properties.getProperty("opsPerBatch", "100"));
+			paramsServer.put("bytesPerBatch",properties.getProperty("bytesPerBatch", "65536"));
+			paramsServer.put("deltaExchange",properties.getProperty("deltaExchange", "Off"));
+			paramsServer.put("digestHandshake",properties.getProperty("digestHandshake", "Off"));
+			paramsServer.put("pipelinedSessions",properties.getProperty("pipelinedSessions", "Off"));
+			paramsServer.put("streamingApply",properties.getProperty("streamingApply", "Off"));
+			paramsServer.put("maxPartnerSessions",properties.getProperty("maxPartnerSessions", "8"));
+			paramsServer.put("sessionThreads",properties.getProperty("sessionThreads", "pool"));
+			paramsServer.put("channelIdleTimeout",properties.getProperty("channelIdleTimeout", "0"));
+			paramsServer.put("logDir",properties.getProperty("logDir", ""));
+			paramsServer.put("snapshotThreshold",properties.getProperty("snapshotThreshold", "0"));
+			paramsServer.put("metricsJmx",properties.getProperty("metricsJmx", "Off"));
+			paramsServer.put("metricsDumpPeriod",properties.getProperty("metricsDumpPeriod", "0"));
 			paramsServer.put("simulationStop",properties.getProperty("simulationStop"));
 			paramsServer.put("executionStop",properties.getProperty("executionStop"));
 			paramsServer.put("simulationDelay",properties.getProperty("simulationDelay"));
@@ -151,6 +168,7 @@ public class SendArgsToTestServer {
 			paramsServer.put("samplingTime",String.valueOf(properties.getProperty("samplingTime")));
 			paramsServer.put("purge",purge);
 			paramsServer.put("executionMode",executionMode);
+			paramsServer.put("wireFormat",properties.getProperty("wireFormat", "java"));
 
 			params.put("coordinatorLSimParameters", paramsServer);
 			ExperimentData experimentData = new ExperimentData();
@@ -42,6 +42,10 @@ public class ServerResult implements Serializable{
 	private Log log;
 	private TimestampVector summary;
 	private TimestampMatrix ack;
+
+	// hash of recipes, log, summary and ack (computed once)
+	private transient volatile boolean fingerprinted = false;
+	private transient long fingerprint;
 	
 	public ServerResult (String groupId, String nodeId, Recipes recipes, Log log, TimestampVector tsVector, TimestampMatrix tsMatrix){
 		this.groupId = groupId;
@@ -70,6 +74,36 @@ public class ServerResult implements Serializable{
 	public TimestampMatrix getAck() {
 		return ack;
 	}
+
+	/**
+	 * Hash of the results: equal results have the same fingerprint.
+	 * It is computed the first time it is requested.
+	 * @return fingerprint
+	 */
+	public long fingerprint(){
+		if (!fingerprinted){
+			long hash = (recipes == null) ? 0 : recipes.digest();
+			hash = hash * 31 + ((log == null) ? 0 : log.digest());
+			hash = hash * 31 + ((summary == null) ? 0 : summary.digest());
+			hash = hash * 31 + ((ack == null) ? 0 : ack.digest());
+			fingerprint = hash;
+			fingerprinted = true;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Compares the fingerprints of both results and, only if they
+	 * are different, the full results (to report what differs)
+	 * @param other
+	 * @return true if both results are considered equal
+	 */
+	public boolean sameResult(ServerResult other){
+		if (other != null && fingerprint() == other.fingerprint()){
+			return true;
+		}
+		return equals(other);
+	}
 	public String toString(){
 		return "Group id: " + groupId + "\nNode id: " + nodeId + "\nRecipes: " + recipes.toString() 
 				+ "\nLog: " + log.toString() + "\nSummary: " + summary.toString()
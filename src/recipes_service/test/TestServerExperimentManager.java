@@ -20,6 +20,7 @@
 
 package recipes_service.test;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -30,9 +31,17 @@ import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import edu.uoc.dpcs.lsim.utils.LSimParameters;
 import recipes_service.communication.Host;
@@ -49,6 +58,11 @@ public class TestServerExperimentManager extends Thread{
 	private ExperimentData experimentData;
 	private boolean logResults;
 	private String path;
+
+	// results received from servers (each connection is read in a thread of a pool)
+	private final List<ServerResult> finalResults = new Vector<ServerResult>();
+	private final Map<Integer, List<ServerResult>> allResults = new ConcurrentHashMap<Integer, List<ServerResult>>();
+	private volatile boolean end = false;
 	
 	public TestServerExperimentManager(){
 	}
@@ -172,50 +186,34 @@ public class TestServerExperimentManager extends Thread{
 		// ************
 
 		// receives results from nodes 
-		List<ServerResult> finalResults = new Vector<ServerResult>();
-		boolean end = false;
-		HashMap<Integer, List<ServerResult>> allResults = new HashMap<Integer, List<ServerResult>>();
-		
+		// (connections are read concurrently; once the required final results
+		// have been received the server socket is closed to stop accepting)
+		ExecutorService receivers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		final int requiredResults = numRequiredResults;
 		try {
 			serverSocket.setSoTimeout(3600000);// sets a timeout. A read() call on the InputStream associated with this Socket will block for only this amount of time (milliseconds) 
 			do{
-				clientSocket = serverSocket.accept();
-				in = new ObjectInputStream(clientSocket.getInputStream());
-				try {
-					ResultBase result = (ResultBase)in.readObject();
-					switch(result.type()){
-					case PARTIAL:
-						Integer iteration = ((PartialResult)result).getIteration();
-						List<ServerResult> results = null;
-						if (allResults.containsKey(iteration)){
-							results = allResults.get(iteration);
-						} else{
-							results = new Vector<ServerResult>();
-						}
-						results.add(result.getServerResult());
-						allResults.put(iteration, results);
-						System.out.println("##### [iteration: "+iteration
-								+"] partial result from server: " + result.getServerResult().getNodeId());
-						break;
-					case FINAL:
-						finalResults.add(result.getServerResult());
-						System.out.println("##### Final result from server: " + result.getServerResult().getNodeId());
-						if (finalResults.size() == numRequiredResults){
-							end = true;
-						}
-						break;
+				final Socket resultSocket = serverSocket.accept();
+				receivers.execute(new Runnable(){
+					public void run() {
+						receiveResult(resultSocket, requiredResults);
 					}
-				} catch (ClassNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				in.close();
-				clientSocket.close();
+				});
 				serverSocket.setSoTimeout(45000);// sets a timeout. A read() call on the InputStream associated with this Socket will block for only this amount of time (milliseconds) 
 			}while(!end);
 		} catch (SocketTimeoutException acceptException) {
 			System.out.println("*********** Accept timeout");
 		} catch (IOException e){
+			if (!end){
+				e.printStackTrace();
+			}
+		}
+		// waits for the results being read
+		receivers.shutdown();
+		try {
+			receivers.awaitTermination(45000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 		
@@ -263,7 +261,7 @@ public class TestServerExperimentManager extends Thread{
 		}
 		equal = true;
 		for (int i = 1 ; i<finalResults.size() && equal; i++){
-			equal = equal && finalResults.get(0).equals(finalResults.get(i));
+			equal = equal && finalResults.get(0).sameResult(finalResults.get(i));
 //			if (!equal){
 				System.out.println("##### ["+finalResults.get(i).getNodeId()+"] Result:\n " + finalResults.get(i));
 				if (logResults){
@@ -299,18 +297,38 @@ public class TestServerExperimentManager extends Thread{
 		}
 		
 		// calculate in which iteration nodes converged
-		boolean converged = false;
+		// (iterations are evaluated in parallel)
+		ExecutorService evaluators = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		final boolean enoughResults = (allResults.size() >= finalResults.size());
+		List<Future<Boolean>> iterations = new ArrayList<Future<Boolean>>();
+		for (int it = 0; allResults.containsKey(Integer.valueOf(it)); it++){
+			final List<ServerResult> results = allResults.get(Integer.valueOf(it));
+			iterations.add(evaluators.submit(new Callable<Boolean>(){
+				public Boolean call() {
+					boolean converged = enoughResults;
+					for (int i = 1 ; i<results.size() && converged; i++){
+						converged = converged && results.get(0).sameResult(results.get(i));
+					}
+					return converged;
+				}
+			}));
+		}
 		int convergenceIteration = -1;
-		for (int it = 0; allResults.containsKey(Integer.valueOf(it))&& !converged; it++){
-			List<ServerResult> results = allResults.get(Integer.valueOf(it));
-			converged = (allResults.size() >= finalResults.size());
-			for (int i = 1 ; i<results.size() && converged; i++){
-				converged = converged && results.get(0).equals(results.get(i));
-			}
-			if (converged){
-				convergenceIteration = it;
+		for (int it = 0; it < iterations.size() && convergenceIteration == -1; it++){
+			try {
+				if (iterations.get(it).get()){
+					convergenceIteration = it;
+				}
+			} catch (InterruptedException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
 			}
 		}
+		// later iterations are not needed
+		evaluators.shutdownNow();
 
 		// write final result
 		System.out.println("\n\n");
@@ -368,4 +386,62 @@ public class TestServerExperimentManager extends Thread{
 			System.exit(20);
 		}
 	}
+
+	/**
+	 * Reads the result sent by a server through clientSocket and stores it.
+	 * When numRequiredResults final results have been received the
+	 * server socket is closed (no more results are accepted).
+	 * @param clientSocket
+	 * @param numRequiredResults
+	 */
+	private void receiveResult(Socket clientSocket, int numRequiredResults){
+		try {
+			// buffered: results are large objects made of many small fields
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+			ResultBase result = (ResultBase)in.readObject();
+			// computed now, while other results are being received
+			result.getServerResult().fingerprint();
+			switch(result.type()){
+			case PARTIAL:
+				Integer iteration = ((PartialResult)result).getIteration();
+				List<ServerResult> results = allResults.get(iteration);
+				if (results == null){
+					List<ServerResult> newResults = new Vector<ServerResult>();
+					results = allResults.putIfAbsent(iteration, newResults);
+					if (results == null){
+						results = newResults;
+					}
+				}
+				results.add(result.getServerResult());
+				System.out.println("##### [iteration: "+iteration
+						+"] partial result from server: " + result.getServerResult().getNodeId());
+				break;
+			case FINAL:
+				boolean last;
+				synchronized (finalResults) {
+					finalResults.add(result.getServerResult());
+					last = (finalResults.size() == numRequiredResults);
+				}
+				System.out.println("##### Final result from server: " + result.getServerResult().getNodeId());
+				if (last){
+					end = true;
+					serverSocket.close();
+				}
+				break;
+			}
+			in.close();
+		} catch (ClassNotFoundException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} finally {
+			try {
+				clientSocket.close();
+			} catch (IOException e) {
+				/* should not be thrown */
+			}
+		}
+	}
 }
@@ -0,0 +1,258 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.data.Operation;
+
+/**
+ * Segment of the log that stores the operations issued by a single host.
+ * Operations are kept in an array ordered by sequence number (the Log only
+ * accepts an operation if it is the next one of its host), so
+ * the operations newer than a given timestamp are found with a binary search
+ * and returned as a tail slice.
+ *
+ * Segments are independent of each other: each one is guarded by its own
+ * monitor, so operations from different hosts can be appended concurrently.
+ */
+class HostLog {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Operation[] ops = new Operation[INITIAL_CAPACITY];
+	// operations are stored in positions [head, tail)
+	private int head = 0;
+	private int tail = 0;
+	// operations up to this sequence number have already been purged
+	private long purgedSeqnumber = Long.MIN_VALUE;
+
+	/**
+	 * Appends op at the end of the segment if it is the next operation of the
+	 * host: its sequence number follows the one of the last operation (or of the
+	 * last operation purged). Operations after a gap are not appended: once
+	 * appended, the missing operations would never be accepted.
+	 * @param op
+	 * @return true if op is appended, false otherwise.
+	 */
+	synchronized boolean append(Operation op){
+		if (!isNext(op.getTimestamp().getSeqnumber(), last())){
+			return false;
+		}
+		if (tail == ops.length){
+			grow();
+		}
+		ops[tail++] = op;
+		return true;
+	}
+
+	/**
+	 * Appends, in order, the operations of newOps that follow the last operation
+	 * of the segment without gaps, holding the monitor of the segment once for
+	 * all of them. Operations already in the segment are skipped; appending stops
+	 * at the first gap.
+	 * @param newOps: operations of the host, ordered by sequence number
+	 * @param store: on-disk copy of the log where appended operations are also stored (may be null)
+	 * @return operations appended
+	 */
+	synchronized List<Operation> appendAll(List<Operation> newOps, LogStore store){
+		List<Operation> appended = new ArrayList<Operation>(newOps.size());
+		long last = last();
+		for (Operation op : newOps){
+			long seqnumber = op.getTimestamp().getSeqnumber();
+			if (last != Long.MIN_VALUE && seqnumber <= last){
+				continue;
+			}
+			if (!isNext(seqnumber, last)){
+				break;
+			}
+			if (tail == ops.length){
+				grow();
+			}
+			ops[tail++] = op;
+			last = op.getTimestamp().getSeqnumber();
+			appended.add(op);
+			if (store != null){
+				try {
+					store.append(op);
+				} catch (IOException e) {
+					// the operation is kept in memory
+					e.printStackTrace();
+				}
+			}
+		}
+		return appended;
+	}
+
+	/**
+	 * @return sequence number of the last operation of the segment (or of the
+	 * last one purged if it is empty); Long.MIN_VALUE if it has never had any
+	 */
+	private long last(){
+		if (tail > head){
+			return ops[tail-1].getTimestamp().getSeqnumber();
+		}
+		// purging up to the null timestamp purges nothing
+		return (purgedSeqnumber == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER) ? Long.MIN_VALUE : purgedSeqnumber;
+	}
+
+	/**
+	 * @param seqnumber
+	 * @param last: sequence number of the last operation (Long.MIN_VALUE if there is none)
+	 * @return true if seqnumber is the next one after last (any sequence number if there is no last)
+	 */
+	private static boolean isNext(long seqnumber, long last){
+		return last == Long.MIN_VALUE || seqnumber == last + 1;
+	}
+
+	/**
+	 * @param t
+	 * @return a copy of the operations newer than t, in order
+	 */
+	synchronized List<Operation> newerThan(Timestamp t){
+		int from = head + firstNewer(t);
+		List<Operation> list = new ArrayList<Operation>(tail - from);
+		for (int i = from; i < tail; i++){
+			list.add(ops[i]);
+		}
+		return list;
+	}
+
+	/**
+	 * @param t
+	 * @return position of the first operation newer than t (size() if there is none)
+	 */
+	private int firstNewer(Timestamp t){
+		return firstNewer((t == null) ? 0 : t.getSeqnumber());
+	}
+
+	/**
+	 * @param seqnumber
+	 * @return position of the first operation with a sequence number greater
+	 * than seqnumber (size() if there is none)
+	 */
+	private int firstNewer(long seqnumber){
+		int low = head;
+		int high = tail;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (ops[mid].getTimestamp().getSeqnumber() > seqnumber){
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low - head;
+	}
+
+	/**
+	 * Removes the operations with a sequence number not greater than
+	 * seqnumber. As operations are ordered, they form a prefix of the
+	 * segment: the cost is proportional to the number of operations removed
+	 * (plus a binary search).
+	 * @param seqnumber
+	 */
+	synchronized void purge(long seqnumber){
+		if (seqnumber <= purgedSeqnumber){
+			return;
+		}
+		purgedSeqnumber = seqnumber;
+		int n = firstNewer(seqnumber);
+		for (int i = head; i < head + n; i++){
+			ops[i] = null;
+		}
+		head += n;
+	}
+
+	/**
+	 * @return sequence number of the last operation of the host received by the log
+	 * (stored or already purged), Timestamp.NULL_TIMESTAMP_SEQ_NUMBER if there is none
+	 */
+	synchronized long lastSeqnumber(){
+		if (tail > head){
+			return ops[tail-1].getTimestamp().getSeqnumber();
+		}
+		return (purgedSeqnumber == Long.MIN_VALUE) ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : purgedSeqnumber;
+	}
+
+	/**
+	 * @param seqnumber
+	 * @return true if all the operations with a sequence number greater than
+	 * seqnumber are still in the segment (none of them has been purged)
+	 */
+	synchronized boolean containsNewer(long seqnumber){
+		return seqnumber >= purgedSeqnumber;
+	}
+
+	synchronized int size(){
+		return tail - head;
+	}
+
+	/**
+	 * @return a copy of the operations stored in the segment, in order
+	 */
+	synchronized List<Operation> toList(){
+		List<Operation> list = new ArrayList<Operation>(size());
+		for (int i = head; i < tail; i++){
+			list.add(ops[i]);
+		}
+		return list;
+	}
+
+	private void grow(){
+		int size = size();
+		// reuse the space left at the front before doubling the array
+		Operation[] newOps = (head > ops.length / 2) ? ops : new Operation[ops.length * 2];
+		System.arraycopy(ops, head, newOps, 0, size);
+		if (newOps == ops){
+			for (int i = size; i < tail; i++){
+				ops[i] = null;
+			}
+		}
+		ops = newOps;
+		head = 0;
+		tail = size;
+	}
+
+	/**
+	 * equals
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		HostLog other = (HostLog) obj;
+		return toList().equals(other.toList());
+	}
+
+	/**
+	 * hashCode
+	 */
+	@Override
+	public int hashCode() {
+		return size();
+	}
+}
@@ -20,14 +20,20 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
@@ -42,19 +48,38 @@ import recipes_service.data.Operation;
 public class Log implements Serializable{
 
 	private static final long serialVersionUID = -4864990265268259700L;
+
+	/**
+	 * The serialized form of the log is kept as a ConcurrentHashMap that
+	 * stores a list of operations for each member of the group, so that
+	 * logs can be exchanged with (and read from files written by) previous
+	 * versions.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("log", ConcurrentHashMap.class)
+	};
+
 	/**
 	 * This class implements a log, that stores the operations
 	 * received  by a client.
 	 * They are stored in a ConcurrentHashMap (a hash table),
-	 * that stores a list of operations for each member of 
-	 * the group.
+	 * that stores a segment of operations for each member of 
+	 * the group. Each segment is ordered by sequence number.
 	 */
-	private ConcurrentHashMap<String, List<Operation>> log= new ConcurrentHashMap<String, List<Operation>>();  
+	private transient ConcurrentHashMap<String, HostLog> log= new ConcurrentHashMap<String, HostLog>();  
+
+	// on-disk copy of the log (null if the log is only kept in memory)
+	private transient volatile LogStore store = null;
+
+	// ack (and version of its minimum timestamps) used in the last purge
+	private transient Object purgeLock = new Object();
+	private transient TimestampMatrix purgedAck = null;
+	private transient long purgedMinVersion;
 
 	public Log(List<String> participants){
 		// create an empty log
 		for (Iterator<String> it = participants.iterator(); it.hasNext(); ){
-			log.put(it.next(), new Vector<Operation>());
+			log.put(it.next(), new HostLog());
 		}
 	}
 
@@ -64,34 +89,101 @@ public class Log implements Serializable{
 	 * the user is not the previous operation than the one 
 	 * being inserted, the insertion will fail.
 	 * 
+	 * Only the segment of the host that issued op is locked, so
+	 * operations from different hosts can be inserted concurrently.
+	 * 
 	 * @param op
 	 * @return true if op is inserted, false otherwise.
 	 */
-	public synchronized boolean add(Operation op){
-		/**
-		 * Get HostId from the op's host then we get its list of operation to obtain the last op 
-		 * for compare the timestamps of last and the op (parameter)
-		 */
-		String user = op.getTimestamp().getHostid();
-		List<Operation> listOp = log.get(user);
-		
-		Operation lastOp = null;
-		
-		if( !listOp.isEmpty() )
-			lastOp = listOp.get(listOp.size()-1);
-		
-		if( lastOp == null || lastOp.getTimestamp() == null ) {
-			log.get(user).add(op);
-			return true;
-		} else if( op.getTimestamp().compare(lastOp.getTimestamp()) == 1 ) {
-			log.get(user).add(op);
+	public boolean add(Operation op){
+		HostLog hostLog = log.get(op.getTimestamp().getHostid());
+		if (hostLog == null){
+			return false;
+		}
+		LogStore logStore = store;
+		if (logStore == null){
+			return hostLog.append(op);
+		}
+		// operations are stored in the same order they enter the log
+		synchronized (hostLog){
+			if (!hostLog.append(op)){
+				return false;
+			}
+			try {
+				logStore.append(op);
+			} catch (IOException e) {
+				// the operation is kept in memory
+				e.printStackTrace();
+			}
 			return true;
 		}
-		
-		return false;
+	}
 
+	/**
+	 * Inserts a list of operations into the log. The operations are grouped
+	 * by host and the segment of each host is locked once for all its
+	 * operations. An operation is inserted if it is the next operation of
+	 * its host (as in add): the operations of a host after a gap are not inserted.
+	 * @param ops
+	 * @return operations inserted, in the same order they have in ops
+	 */
+	public List<Operation> addAll(List<Operation> ops){
+		Map<String, List<Operation>> byHost = new HashMap<String, List<Operation>>();
+		for (Operation op : ops){
+			List<Operation> hostOps = byHost.get(op.getTimestamp().getHostid());
+			if (hostOps == null){
+				hostOps = new ArrayList<Operation>();
+				byHost.put(op.getTimestamp().getHostid(), hostOps);
+			}
+			hostOps.add(op);
+		}
+		Set<Operation> added = Collections.newSetFromMap(new IdentityHashMap<Operation, Boolean>());
+		for (Map.Entry<String, List<Operation>> entry : byHost.entrySet()){
+			HostLog hostLog = log.get(entry.getKey());
+			if (hostLog == null){
+				continue;
+			}
+			List<Operation> hostOps = entry.getValue();
+			Collections.sort(hostOps, BY_SEQNUMBER);
+			added.addAll(hostLog.appendAll(hostOps, store));
+		}
+		if (added.size() == ops.size()){
+			return ops;
+		}
+		List<Operation> inserted = new ArrayList<Operation>(added.size());
+		for (Operation op : ops){
+			if (added.contains(op)){
+				inserted.add(op);
+			}
+		}
+		return inserted;
+	}
+
+	private static final Comparator<Operation> BY_SEQNUMBER = new Comparator<Operation>(){
+		public int compare(Operation op1, Operation op2) {
+			return Long.compare(op1.getTimestamp().getSeqnumber(), op2.getTimestamp().getSeqnumber());
+		}
+	};
+
+	/**
+	 * Operations inserted from now on are also appended to store
+	 * @param store
+	 */
+	public void setStore(LogStore store){
+		this.store = store;
 	}
 	
+	/**
+	 * Returns the object that guards the operations of host. Holding it
+	 * guarantees that no other operation of host is inserted meanwhile.
+	 * @param host
+	 * @return lock of the host's segment
+	 */
+	public Object getHostLock(String host){
+		HostLog hostLog = log.get(host);
+		return (hostLog == null) ? this : hostLog;
+	}
+
 	/**
 	 * Checks the received summary (sum) and determines the operations
 	 * contained in the log that have not been seen by
@@ -100,38 +192,93 @@ public class Log implements Serializable{
 	 * @param sum
 	 * @return list of operations
 	 */
-	public synchronized List<Operation> listNewer(TimestampVector sum){
-		
-		List<Operation> ops = new ArrayList();
-		
-		//get all the keys = hosts from hashmap
-		Set<String> hosts = log.keySet();
-		
-		for (String host : hosts) {
-			//t = last timestamp for index host in sumVector
-			Timestamp tRef = sum.getTimestampVector().get(host); 
-			//get the list of ops from a host 
-			List<Operation> logOp = log.get(host);
-			
-			//iterate over list of operations from host(i) and compare if timestamp is new than tRef.-> add to list
-			for (int i = 0; i < logOp.size(); i++) {
-				if (logOp.get(i).getTimestamp().compare(tRef) > 0){
-					ops.add(logOp.get(i));
-				}
-			}  
-			
-			//Sort of the ops list 
-			Collections.sort(ops, new Comparator<Operation>() {
-				@Override
-				public int compare(Operation o1, Operation o2) {
-					return (int) o1.getTimestamp().compare(o2.getTimestamp());
-				}
-			});
+	public List<Operation> listNewer(TimestampVector sum){
+		// for each host, the operations newer than sum are a tail of its segment
+		PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>();
+		int total = 0;
+		for (Map.Entry<String, HostLog> entry : log.entrySet()) {
+			List<Operation> newer = entry.getValue().newerThan(sum.getLast(entry.getKey()));
+			if (!newer.isEmpty()){
+				cursors.add(new Cursor(newer));
+				total += newer.size();
+			}
+		}
+
+		// merge the tails to obtain the operations ordered by timestamp
+		List<Operation> ops = new ArrayList<Operation>(total);
+		while (!cursors.isEmpty()){
+			Cursor cursor = cursors.poll();
+			ops.add(cursor.current());
+			if (cursor.advance()){
+				cursors.add(cursor);
+			}
 		}
 		return ops;
-		
 	}
 	
+	/**
+	 * Checks if the log can provide all the operations not seen by the
+	 * proprietary of the summary sum, i.e. none of them has been purged.
+	 * @param sum
+	 * @return true if listNewer(sum) returns all the operations newer than sum
+	 */
+	public boolean containsNewer(TimestampVector sum){
+		for (Map.Entry<String, HostLog> entry : log.entrySet()) {
+			Timestamp last = sum.getLast(entry.getKey());
+			long seqnumber = (last == null) ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : last.getSeqnumber();
+			if (!entry.getValue().containsNewer(seqnumber)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param host
+	 * @return sequence number of the last operation of host received by the log
+	 * (even if it has already been purged), Timestamp.NULL_TIMESTAMP_SEQ_NUMBER if there is none
+	 */
+	public long lastSeqnumber(String host){
+		HostLog hostLog = log.get(host);
+		return (hostLog == null) ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : hostLog.lastSeqnumber();
+	}
+
+	/**
+	 * @param host
+	 * @return number of operations of host in the log
+	 */
+	public int size(String host){
+		HostLog hostLog = log.get(host);
+		return (hostLog == null) ? 0 : hostLog.size();
+	}
+
+	/**
+	 * @return true if the log has no operations (all of them have been purged)
+	 */
+	public boolean isEmpty(){
+		for (HostLog hostLog : log.values()){
+			if (hostLog.size() > 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the operations of host with a sequence number not greater
+	 * than seqnumber, that are already included in the state (e.g. in a
+	 * snapshot received from a partner). From now on, these operations
+	 * are not inserted again.
+	 * @param host
+	 * @param seqnumber
+	 */
+	public void truncate(String host, long seqnumber){
+		HostLog hostLog = log.get(host);
+		if (hostLog != null){
+			hostLog.purge(seqnumber);
+		}
+	}
+
 	/**
 	 * Removes from the log the operations that have
 	 * been acknowledged by all the members
@@ -139,34 +286,37 @@ public class Log implements Serializable{
 	 * ackSummary. 
 	 * @param ack: ackSummary.
 	 */
-	public synchronized void purgeLog(TimestampMatrix ack){
-	
-		TimestampVector minAck = ack.minTimestampVector();
-	  
-	    //get all the keys = hosts from hashmap
-		Set<String> hosts = log.keySet();
-		
-		for (String host : hosts) {
-			//get the list of ops from a host 
-			List<Operation> logOp = log.get(host);
-			//get the last timestamp of the timestampVector of each host
-			Timestamp lastTimestamp = minAck.getLast(host);
-	        
-			// If the lastTimestamp is not null, proceed to iterate over its messages
-			// and compare each message's timestamp with the lastTimestamp. 
-			// If the message's timestamp it's lower than the lasTimestamp then 
-			// the operation it is removed from the log. 
-			if (lastTimestamp != null){
-				for (int i = 0; i < logOp.size(); i++) {
-					Operation op = logOp.get(i);
-					if (!(op.getTimestamp().compare(lastTimestamp) > 0)){
-						logOp.remove(i);
-					}
-					
-				}
-			}		
+	public void purgeLog(TimestampMatrix ack){
+		// nothing to purge if the minimum timestamps have not changed since last purge
+		long minVersion = ack.getMinVersion();
+		synchronized (purgeLock){
+			if (ack == purgedAck && minVersion == purgedMinVersion){
+				return;
+			}
+			purgedAck = ack;
+			purgedMinVersion = minVersion;
+		}
+		for (Map.Entry<String, HostLog> entry : log.entrySet()) {
+			entry.getValue().purge(ack.minSeqnumber(entry.getKey()));
 		}
-		
+	}
+
+	/**
+	 * Hash of the operations of the log, computed in each call.
+	 * It does not depend on the order of the hosts, so equal logs have the same digest.
+	 * @return digest
+	 */
+	public long digest(){
+		long digest = 0;
+		for (Map.Entry<String, HostLog> entry : log.entrySet()) {
+			// operations of a host in their order
+			long hash = 0;
+			for (Operation op : entry.getValue().toList()){
+				hash = (hash ^ op.digest()) * 0x100000001b3L;
+			}
+			digest += TimestampVector.digest(entry.getKey(), hash);
+		}
+		return digest;
 	}
 
 	/**
@@ -194,16 +344,68 @@ public class Log implements Serializable{
 	 * toString
 	 */
 	@Override
-	public synchronized String toString() {
-		String name="";
-		for(Enumeration<List<Operation>> en=log.elements();
-		en.hasMoreElements(); ){
-		List<Operation> sublog=en.nextElement();
-		for(ListIterator<Operation> en2=sublog.listIterator(); en2.hasNext();){
-			name+=en2.next().toString()+"\n";
+	public String toString() {
+		StringBuilder name = new StringBuilder();
+		for (HostLog sublog : log.values()){
+			for (Operation op : sublog.toList()){
+				name.append(op).append("\n");
+			}
 		}
+		return name.toString();
 	}
-		
-		return name;
+
+	/**
+	 * Serialization
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ConcurrentHashMap<String, List<Operation>> lists = new ConcurrentHashMap<String, List<Operation>>();
+		for (Map.Entry<String, HostLog> entry : log.entrySet()){
+			lists.put(entry.getKey(), new Vector<Operation>(entry.getValue().toList()));
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("log", lists);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		ConcurrentHashMap<String, List<Operation>> lists = (ConcurrentHashMap<String, List<Operation>>) fields.get("log", null);
+		log = new ConcurrentHashMap<String, HostLog>();
+		purgeLock = new Object();
+		if (lists != null){
+			for (Map.Entry<String, List<Operation>> entry : lists.entrySet()){
+				HostLog hostLog = new HostLog();
+				for (Operation op : entry.getValue()){
+					hostLog.append(op);
+				}
+				log.put(entry.getKey(), hostLog);
+			}
+		}
+	}
+
+	/**
+	 * Position in the tail of a host segment, used to merge the tails in timestamp order
+	 */
+	private static class Cursor implements Comparable<Cursor>{
+		private final List<Operation> ops;
+		private int pos = 0;
+
+		Cursor(List<Operation> ops){
+			this.ops = ops;
+		}
+
+		Operation current(){
+			return ops.get(pos);
+		}
+
+		boolean advance(){
+			return ++pos < ops.size();
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			return Long.signum(current().getTimestamp().compare(other.current().getTimestamp()));
+		}
 	}
 }
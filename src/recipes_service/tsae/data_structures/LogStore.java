@@ -0,0 +1,587 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.OperationType;
+import recipes_service.data.Recipe;
+import recipes_service.data.Recipes;
+import recipes_service.data.RemoveOperation;
+
+/**
+ * On-disk copy of the log of a server, used to recover its state when it is restarted.
+ * 
+ * The operations of each host are appended to a sequence of memory-mapped
+ * segment files (one directory per host). Each segment starts with a header
+ * (magic number and host id) followed by records:
+ * 
+ *   length (int) | crc32 of the body (int) | body: sequence number (long), type (byte), fields
+ * 
+ * A record with length 0 marks the end of the data of a segment; a record
+ * whose crc does not match (an append interrupted by a crash) is discarded
+ * together with the ones that follow it.
+ * 
+ * Purging the log deletes whole segments. Operations of a deleted segment are
+ * only recoverable from a checkpoint (recipes, summary and ack) that covers them,
+ * so segments are deleted after writing a checkpoint. Segments are unmapped
+ * before they are deleted.
+ * 
+ * The store is only a copy of the log: sessions read the operations from
+ * the log in memory.
+ */
+public class LogStore {
+	private static final int MAGIC = 0x54534C47; // "TSLG"
+	private static final int SEGMENT_SIZE = 1024 * 1024;
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String CHECKPOINT = "checkpoint";
+
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+
+	// releases the mapping of a buffer (sun.misc.Unsafe.invokeCleaner); null if the
+	// JVM doesn't support it: then mappings are released when buffers are collected
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final File directory;
+	private final ConcurrentHashMap<String, HostSegments> hosts = new ConcurrentHashMap<String, HostSegments>();
+
+	/**
+	 * Opens (or creates) the store in directory, reading the segments it contains
+	 * @param directory
+	 * @throws IOException
+	 */
+	public LogStore(File directory) throws IOException{
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Unable to create log directory " + directory);
+		}
+		File[] hostDirectories = directory.listFiles();
+		for (File hostDirectory : hostDirectories){
+			if (hostDirectory.isDirectory()){
+				HostSegments segments = HostSegments.open(hostDirectory);
+				if (segments != null){
+					hosts.put(segments.hostId, segments);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return a file name for id (characters not allowed in file names are replaced)
+	 */
+	public static String fileName(String id){
+		return id.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * Appends op to the segments of its host. Operations of a host must be
+	 * appended in order (as they are inserted in the log).
+	 * @param op
+	 * @throws IOException
+	 */
+	public void append(Operation op) throws IOException{
+		String hostId = op.getTimestamp().getHostid();
+		HostSegments segments = hosts.get(hostId);
+		if (segments == null){
+			HostSegments created = new HostSegments(new File(directory, fileName(hostId)), hostId);
+			segments = hosts.putIfAbsent(hostId, created);
+			if (segments == null){
+				segments = created;
+			}
+		}
+		segments.append(op);
+	}
+
+	/**
+	 * @return the operations stored for each host, in order
+	 */
+	public Map<String, List<Operation>> readOperations(){
+		Map<String, List<Operation>> operations = new ConcurrentHashMap<String, List<Operation>>();
+		for (HostSegments segments : hosts.values()){
+			operations.put(segments.hostId, segments.read());
+		}
+		return operations;
+	}
+
+	/**
+	 * @param ack
+	 * @return true if some segment only contains operations known by all participants
+	 * (they can be deleted once a checkpoint covers them)
+	 */
+	public boolean hasPurgeableSegments(TimestampMatrix ack){
+		for (HostSegments segments : hosts.values()){
+			if (segments.purgeable(ack.minSeqnumber(segments.hostId))){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes the segments that only contain operations known by all participants
+	 * and covered by the last checkpoint
+	 * @param checkpoint: last checkpoint written
+	 * @param ack
+	 */
+	public void purge(Checkpoint checkpoint, TimestampMatrix ack){
+		for (HostSegments segments : hosts.values()){
+			Timestamp covered = checkpoint.getSummary().getLast(segments.hostId);
+			if (covered != null){
+				segments.purge(Math.min(covered.getSeqnumber(), ack.minSeqnumber(segments.hostId)));
+			}
+		}
+	}
+
+	/**
+	 * Writes the segments to disk and unmaps them. Operations can not be
+	 * appended afterwards
+	 */
+	public void close(){
+		for (HostSegments segments : hosts.values()){
+			segments.close();
+		}
+	}
+
+	/**
+	 * Writes a checkpoint, replacing the previous one. The checkpoint is first
+	 * written to a temporary file that is then renamed, so a crash leaves
+	 * either the previous checkpoint or the new one.
+	 * @param checkpoint
+	 * @throws IOException
+	 */
+	public void writeCheckpoint(Checkpoint checkpoint) throws IOException{
+		for (HostSegments segments : hosts.values()){
+			segments.force();
+		}
+		File tmp = new File(directory, CHECKPOINT + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(file);
+			out.writeObject(checkpoint);
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		Files.move(tmp.toPath(), new File(directory, CHECKPOINT).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return last checkpoint written (null if there is none)
+	 * @throws IOException
+	 */
+	public Checkpoint readCheckpoint() throws IOException{
+		File file = new File(directory, CHECKPOINT);
+		if (!file.exists()){
+			return null;
+		}
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+		try {
+			return (Checkpoint) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * State of a server (recipes, summary and ack) that includes all the
+	 * operations up to the timestamps in summary
+	 */
+	public static class Checkpoint implements Serializable{
+		private static final long serialVersionUID = 2405834178812354017L;
+
+		private final Recipes recipes;
+		private final TimestampVector summary;
+		private final TimestampMatrix ack;
+
+		public Checkpoint(Recipes recipes, TimestampVector summary, TimestampMatrix ack){
+			this.recipes = recipes;
+			this.summary = summary;
+			this.ack = ack;
+		}
+
+		public Recipes getRecipes(){
+			return recipes;
+		}
+
+		public TimestampVector getSummary(){
+			return summary;
+		}
+
+		public TimestampMatrix getAck(){
+			return ack;
+		}
+	}
+
+	/**
+	 * Segments of a host, ordered by sequence number. Operations are
+	 * appended to the last one.
+	 */
+	private static class HostSegments{
+		private final File directory;
+		private final String hostId;
+		private final List<Segment> segments = new ArrayList<Segment>();
+		private boolean closed = false;
+
+		HostSegments(File directory, String hostId) throws IOException{
+			this.directory = directory;
+			this.hostId = hostId;
+			if (!directory.isDirectory() && !directory.mkdirs()){
+				throw new IOException("Unable to create log directory " + directory);
+			}
+		}
+
+		/**
+		 * @param directory
+		 * @return the segments in directory (null if there is none)
+		 * @throws IOException
+		 */
+		static HostSegments open(File directory) throws IOException{
+			File[] files = directory.listFiles();
+			Arrays.sort(files);
+			HostSegments hostSegments = null;
+			for (File file : files){
+				if (!file.getName().endsWith(SEGMENT_SUFFIX)){
+					continue;
+				}
+				Segment segment = Segment.open(file);
+				if (segment == null){
+					continue;
+				}
+				if (hostSegments == null){
+					hostSegments = new HostSegments(directory, segment.hostId);
+				}
+				hostSegments.segments.add(segment);
+			}
+			return hostSegments;
+		}
+
+		synchronized void append(Operation op) throws IOException{
+			if (closed){
+				throw new IOException("Log store of " + hostId + " is closed");
+			}
+			byte[] body = encode(op);
+			Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			if (last == null || !last.fits(body)){
+				String name = String.format("%020d", op.getTimestamp().getSeqnumber()) + SEGMENT_SUFFIX;
+				last = Segment.create(new File(directory, name), hostId, body.length);
+				segments.add(last);
+			}
+			last.append(body, op.getTimestamp().getSeqnumber());
+		}
+
+		synchronized List<Operation> read(){
+			List<Operation> operations = new ArrayList<Operation>();
+			for (Segment segment : segments){
+				segment.read(operations);
+			}
+			return operations;
+		}
+
+		synchronized boolean purgeable(long seqnumber){
+			return segments.size() > 1 && segments.get(0).lastSeqnumber <= seqnumber;
+		}
+
+		/**
+		 * Deletes the segments (except the last one) whose operations
+		 * have a sequence number not greater than seqnumber
+		 * @param seqnumber
+		 */
+		synchronized void purge(long seqnumber){
+			while (purgeable(seqnumber)){
+				Segment segment = segments.remove(0);
+				segment.unmap();
+				segment.file.delete();
+			}
+		}
+
+		synchronized void force(){
+			for (Segment segment : segments){
+				segment.buffer.force();
+			}
+		}
+
+		synchronized void close(){
+			force();
+			for (Segment segment : segments){
+				segment.unmap();
+			}
+			segments.clear();
+			closed = true;
+		}
+
+		private byte[] encode(Operation op) throws IOException{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(op.getTimestamp().getSeqnumber());
+			if (op.getType() == OperationType.ADD){
+				Recipe recipe = ((AddOperation) op).getRecipe();
+				out.writeByte(ADD);
+				writeString(out, recipe.getTitle());
+				writeString(out, recipe.getRecipe());
+				writeString(out, recipe.getAuthor());
+				writeTimestamp(out, recipe.getTimestamp());
+			} else {
+				RemoveOperation removeOp = (RemoveOperation) op;
+				out.writeByte(REMOVE);
+				writeString(out, removeOp.getRecipeTitle());
+				writeTimestamp(out, removeOp.getRecipeTimestamp());
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * A memory-mapped segment file
+	 */
+	private static class Segment{
+		private final File file;
+		private final String hostId;
+		private final MappedByteBuffer buffer;
+		// position of the first record
+		private final int dataStart;
+		private long lastSeqnumber = Long.MIN_VALUE;
+
+		private Segment(File file, String hostId, MappedByteBuffer buffer){
+			this.file = file;
+			this.hostId = hostId;
+			this.buffer = buffer;
+			this.dataStart = buffer.position();
+		}
+
+		/**
+		 * Creates a segment with room for at least a record with a body of bodyLength bytes
+		 */
+		static Segment create(File file, String hostId, int bodyLength) throws IOException{
+			byte[] id = hostId.getBytes(StandardCharsets.UTF_8);
+			int size = Math.max(SEGMENT_SIZE, 4 + 4 + id.length + 8 + bodyLength + 4);
+			MappedByteBuffer buffer = map(file, size);
+			buffer.putInt(MAGIC);
+			buffer.putInt(id.length);
+			buffer.put(id);
+			return new Segment(file, hostId, buffer);
+		}
+
+		/**
+		 * Opens an existing segment, positioned after its last valid record
+		 * @return the segment (null if file is not a segment)
+		 */
+		static Segment open(File file) throws IOException{
+			MappedByteBuffer buffer = map(file, (int) file.length());
+			if (buffer.remaining() < 8 || buffer.getInt() != MAGIC){
+				return null;
+			}
+			byte[] id = new byte[buffer.getInt()];
+			buffer.get(id);
+			Segment segment = new Segment(file, new String(id, StandardCharsets.UTF_8), buffer);
+			// skip valid records
+			byte[] body;
+			while ((body = segment.next()) != null){
+				segment.lastSeqnumber = new DataInputStream(new ByteArrayInputStream(body)).readLong();
+			}
+			return segment;
+		}
+
+		private static MappedByteBuffer map(File file, int size) throws IOException{
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(size);
+				return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} finally {
+				// the mapping remains valid after closing the file
+				raf.close();
+			}
+		}
+
+		/**
+		 * Releases the mapping of the segment: it can not be used afterwards
+		 */
+		void unmap(){
+			if (INVOKE_CLEANER != null){
+				try {
+					INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				} catch (ReflectiveOperationException e) {
+					// released when the buffer is collected
+				}
+			}
+		}
+
+		boolean fits(byte[] body){
+			return buffer.remaining() >= 8 + body.length;
+		}
+
+		void append(byte[] body, long seqnumber){
+			CRC32 crc = new CRC32();
+			crc.update(body, 0, body.length);
+			int position = buffer.position();
+			// the length is written last: a partially written record is never valid
+			buffer.position(position + 4);
+			buffer.putInt((int) crc.getValue());
+			buffer.put(body);
+			buffer.putInt(position, body.length);
+			lastSeqnumber = seqnumber;
+		}
+
+		/**
+		 * Reads the body of the record at the current position and advances to the next one
+		 * @return body (null if there are no more valid records)
+		 */
+		private byte[] next(){
+			int position = buffer.position();
+			if (buffer.remaining() < 8){
+				return null;
+			}
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()){
+				buffer.position(position);
+				return null;
+			}
+			byte[] body = new byte[length];
+			buffer.get(body);
+			CRC32 crc = new CRC32();
+			crc.update(body, 0, length);
+			if ((int) crc.getValue() != checksum){
+				buffer.position(position);
+				return null;
+			}
+			return body;
+		}
+
+		/**
+		 * Adds to operations the operations of this segment
+		 */
+		void read(List<Operation> operations){
+			MappedByteBuffer records = buffer;
+			int end = records.position();
+			records.position(dataStart);
+			try {
+				while (records.position() < end){
+					operations.add(decode(next()));
+				}
+			} catch (IOException e) {
+				// should not be thrown: records have been validated when the segment was opened
+				e.printStackTrace();
+			} finally {
+				records.position(end);
+			}
+		}
+
+		private Operation decode(byte[] body) throws IOException{
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+			Timestamp timestamp = new Timestamp(hostId, in.readLong());
+			byte type = in.readByte();
+			if (type == ADD){
+				String title = readString(in);
+				String recipe = readString(in);
+				String author = readString(in);
+				return new AddOperation(new Recipe(title, recipe, author, readTimestamp(in)), timestamp);
+			}
+			String recipeTitle = readString(in);
+			return new RemoveOperation(recipeTitle, readTimestamp(in), timestamp);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		if (s == null){
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException{
+		int length = in.readInt();
+		if (length < 0){
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeTimestamp(DataOutputStream out, Timestamp timestamp) throws IOException{
+		writeString(out, (timestamp == null) ? null : timestamp.getHostid());
+		if (timestamp != null){
+			out.writeLong(timestamp.getSeqnumber());
+		}
+	}
+
+	private static Timestamp readTimestamp(DataInputStream in) throws IOException{
+		String hostId = readString(in);
+		if (hostId == null){
+			return null;
+		}
+		return new Timestamp(hostId, in.readLong());
+	}
+}
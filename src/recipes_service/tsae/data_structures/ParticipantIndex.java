@@ -0,0 +1,116 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable table that assigns a dense index (0..size-1) to each participant id.
+ * 
+ * Timestamp vectors store one sequence number per index. Tables are shared:
+ * of() returns the same table for the same set of participants, so the
+ * vectors of a server (and the ones received from its partners) use the
+ * same indexes and can be merged position by position.
+ * 
+ * Tables are only kept while some vector uses them: the ones created for the
+ * subsets of participants in deltas (or in sub-vectors) are discarded by the
+ * garbage collector, so the number of tables does not grow with the sessions.
+ */
+public final class ParticipantIndex {
+	// a table strongly references its key (participants): the entry is removed once the table is not used
+	private static final Map<Set<String>, WeakReference<ParticipantIndex>> tables = new WeakHashMap<Set<String>, WeakReference<ParticipantIndex>>();
+
+	private final Set<String> participants;
+	private final String[] ids;
+	private final Map<String, Integer> positions;
+
+	private ParticipantIndex(Set<String> participants){
+		this.participants = participants;
+		this.ids = participants.toArray(new String[participants.size()]);
+		this.positions = new HashMap<String, Integer>();
+		for (int i = 0; i < ids.length; i++){
+			positions.put(ids[i], i);
+		}
+	}
+
+	/**
+	 * @param participants
+	 * @return the shared table for the set of participants
+	 * (created, with participants order, if there was none)
+	 */
+	public static ParticipantIndex of(Collection<String> participants){
+		// distinct participants, in order
+		Set<String> key = new LinkedHashSet<String>(participants);
+		synchronized (tables){
+			WeakReference<ParticipantIndex> reference = tables.get(key);
+			ParticipantIndex index = (reference == null) ? null : reference.get();
+			if (index == null){
+				index = new ParticipantIndex(key);
+				// an entry whose table was discarded keeps its own key: it is replaced
+				tables.remove(key);
+				tables.put(index.participants, new WeakReference<ParticipantIndex>(index));
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @return number of participants
+	 */
+	public int size(){
+		return ids.length;
+	}
+
+	/**
+	 * @param index
+	 * @return id of the participant in position index
+	 */
+	public String getId(int index){
+		return ids[index];
+	}
+
+	/**
+	 * @param id
+	 * @return position of the participant id, or -1 if it is not a participant
+	 */
+	public int indexOf(String id){
+		Integer position = positions.get(id);
+		return (position == null) ? -1 : position;
+	}
+
+	/**
+	 * @return participant ids, in index order
+	 */
+	public List<String> getIds(){
+		List<String> list = new ArrayList<String>(ids.length);
+		Collections.addAll(list, ids);
+		return list;
+	}
+}
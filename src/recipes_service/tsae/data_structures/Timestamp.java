@@ -50,6 +50,10 @@ public class Timestamp implements Serializable{
 		return hostid;
 	}
 	
+	public long getSeqnumber() {
+		return seqnumber;
+	}
+	
 	public boolean isNullTimestamp(){
 		return seqnumber < 0;
 	}
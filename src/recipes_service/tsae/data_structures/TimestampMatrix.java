@@ -20,11 +20,18 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -37,27 +44,93 @@ public class TimestampMatrix implements Serializable{
 	
 	
 	private static final long serialVersionUID = 3331148113387926667L;
-	ConcurrentHashMap<String, TimestampVector> timestampMatrix = new ConcurrentHashMap<String, TimestampVector>();
-	
+
+	/**
+	 * The serialized form is kept as a ConcurrentHashMap from node id to
+	 * its TimestampVector, as in previous versions.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("timestampMatrix", ConcurrentHashMap.class)
+	};
+
+	/**
+	 * Value of the cells for which a row has no timestamp
+	 */
+	private static final long ABSENT = Long.MAX_VALUE;
+
+	/**
+	 * The matrix is stored as an array of rows. Rows and columns use the same
+	 * participant index: cell (r, c) is the sequence number of the last
+	 * operation of node c that node r is known to have received. For each
+	 * column it is also kept its minimum and the number of rows that have it,
+	 * so that the minimum only has to be recomputed when the last row holding
+	 * it increases.
+	 * 
+	 * All of it forms an immutable version of the matrix: updates publish a
+	 * new version (writers are serialized by the lock of the matrix) that
+	 * shares with the previous one the rows that have not changed, and readers
+	 * use the current one without locking. A clone shares the version of the
+	 * original matrix, so it takes constant time. Rows are kept as separate
+	 * arrays (instead of a single array of N*N cells) so that an update copies
+	 * only the rows it changes, and a row can be shared with the timestamp
+	 * vector returned for it.
+	 */
+	private transient volatile Version version;
+
 	public TimestampMatrix(List<String> participants){
 		// create and empty TimestampMatrix
-		for (Iterator<String> it = participants.iterator(); it.hasNext(); ){
-			timestampMatrix.put(it.next(), new TimestampVector(participants));
+		ParticipantIndex index = ParticipantIndex.of(participants);
+		Editor editor = new Editor(new Version(index));
+		for (int r = 0; r < index.size(); r++){
+			long[] row = new long[index.size()];
+			Arrays.fill(row, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+			editor.rows[r] = row;
 		}
+		editor.recomputeColumns();
+		version = editor.publish();
 	}
 	//default constructor
-	public TimestampMatrix() {}
+	public TimestampMatrix() {
+		version = new Version(ParticipantIndex.of(new ArrayList<String>()));
+	}
 
-	public void setTimestampMatrix(ConcurrentHashMap<String, TimestampVector> timestampMatrix) {
-		this.timestampMatrix = timestampMatrix;
+	private TimestampMatrix(Version version){
+		this.version = version;
+	}
+
+	public synchronized void setTimestampMatrix(ConcurrentHashMap<String, TimestampVector> timestampMatrix) {
+		Editor editor = new Editor(new Version(ParticipantIndex.of(new ArrayList<String>())));
+		for (Map.Entry<String, TimestampVector> entry : timestampMatrix.entrySet()) {
+			editor.setRow(entry.getKey(), entry.getValue());
+		}
+		version = editor.publish();
+	}
+
+	/**
+	 * @return the nodes that have a timestamp vector in this timestamp matrix
+	 */
+	public Set<String> getNodes(){
+		Version v = version;
+		Set<String> present = new LinkedHashSet<String>();
+		for (int r = 0; r < v.rows.length; r++){
+			if (v.rows[r] != null){
+				present.add(v.nodes.getId(r));
+			}
+		}
+		return present;
 	}
 
 	/**
 	 * @param node
 	 * @return the timestamp vector of node in this timestamp matrix
+	 * (a copy: changes to the vector are not reflected in the matrix)
 	 */
 	public TimestampVector getTimestampVector(String node){
-		return timestampMatrix.get(node);
+		Version v = version;
+		int r = v.nodes.indexOf(node);
+		if (r < 0 || v.rows[r] == null)
+			return null;
+		return toVector(v.nodes, v.rows[r]);
 	}
 	
 	/**
@@ -65,14 +138,29 @@ public class TimestampMatrix implements Serializable{
 	 * @param tsMatrix
 	 */
 	public synchronized void updateMax(TimestampMatrix tsMatrix){
-		Set<String> hosts = tsMatrix.timestampMatrix.keySet();
-		for (String host : hosts) {
-			TimestampVector tsv = timestampMatrix.get(host);
-			TimestampVector tref = tsMatrix.getTimestampVector(host);
-			if(tsv != null)
-				tsv.updateMax(tref);
-		}	
-		
+		if (tsMatrix == null)
+			return;
+		Version other = tsMatrix.version;
+		Editor editor = new Editor(version);
+		int m = other.nodes.size();
+		int[] columns = new int[m];
+		for (int c = 0; c < m; c++){
+			columns[c] = (other.nodes == editor.nodes) ? c : editor.nodes.indexOf(other.nodes.getId(c));
+		}
+		for (int otherRow = 0; otherRow < m; otherRow++){
+			int r = columns[otherRow];
+			// rows not present in this matrix are not added
+			if (other.rows[otherRow] == null || r < 0 || editor.rows[r] == null)
+				continue;
+			for (int c = 0; c < m; c++){
+				long value = other.rows[otherRow][c];
+				// timestamps not present in the row are not added
+				if (columns[c] >= 0 && value != ABSENT && value > editor.rows[r][columns[c]]){
+					editor.setCell(r, columns[c], value);
+				}
+			}
+		}
+		version = editor.publish();
 	}
 	
 	/**
@@ -81,63 +169,142 @@ public class TimestampMatrix implements Serializable{
 	 * @param tsVector
 	 */
 	public synchronized void update(String node, TimestampVector tsVector){
-		if(timestampMatrix.get(node) != null)
-			timestampMatrix.replace(node, tsVector);
-		else
-			timestampMatrix.put(node, tsVector);
+		Editor editor = new Editor(version);
+		editor.setRow(node, tsVector);
+		version = editor.publish();
 	}
-	
+
+	/**
+	 * @param index
+	 * @param row
+	 * @return a timestamp vector with the values of row (absent values are not included)
+	 */
+	private static TimestampVector toVector(ParticipantIndex index, long[] row){
+		int n = index.size();
+		List<String> ids = new ArrayList<String>(n);
+		for (int c = 0; c < n; c++){
+			if (row[c] != ABSENT){
+				ids.add(index.getId(c));
+			}
+		}
+		if (ids.size() == n){
+			// rows are never modified once published: the vector can share it
+			return new TimestampVector(index, row);
+		}
+		ParticipantIndex vectorIndex = ParticipantIndex.of(ids);
+		long[] seqnumbers = new long[vectorIndex.size()];
+		for (int c = 0; c < n; c++){
+			if (row[c] != ABSENT){
+				seqnumbers[vectorIndex.indexOf(index.getId(c))] = row[c];
+			}
+		}
+		return new TimestampVector(vectorIndex, seqnumbers);
+	}
+
 	/**
 	 * Obtain a timestamp vector containing, for each node, 
 	 * the timestamp known by all participants
 	 * 
-	 * @return minVector
+	 * @return minVector (null if the matrix has no vectors)
+	 */
+	public TimestampVector minTimestampVector(){
+		Version v = version;
+		for (int r = 0; r < v.rows.length; r++){
+			if (v.rows[r] != null){
+				return toVector(v.nodes, v.columnMin);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Obtain, without building the whole minimum vector, the sequence number
+	 * of the last operation of node known by all participants
+	 * @param node
+	 * @return sequence number (Long.MIN_VALUE if no vector of the matrix has a timestamp for node)
+	 */
+	public long minSeqnumber(String node){
+		Version v = version;
+		int c = v.nodes.indexOf(node);
+		if (c < 0 || v.columnMin[c] == ABSENT)
+			return Long.MIN_VALUE;
+		return v.columnMin[c];
+	}
+
+	/**
+	 * @return a number that changes each time the minimum timestamp of a node
+	 * (minTimestampVector) changes
 	 */
+	public long getMinVersion(){
+		return version.minVersion;
+	}
 	
-	public synchronized TimestampVector minTimestampVector(){
-		TimestampVector minVector = null;
-		Set<String> hosts = timestampMatrix.keySet();
+	/**
+	 * @param base
+	 * @return for each node, the timestamps of its vector that are different from the ones in base
+	 * (nodes whose vector has not changed are not included)
+	 */
+	public Map<String, List<Timestamp>> diff(TimestampMatrix base){
+		TimestampMatrix copy = clone();
+		TimestampMatrix baseCopy = base.clone();
+		Map<String, List<Timestamp>> delta = new HashMap<String, List<Timestamp>>();
+		for (String host : copy.getNodes()) {
+			TimestampVector tsv = copy.getTimestampVector(host);
+			TimestampVector baseVector = baseCopy.getTimestampVector(host);
+			List<Timestamp> rowDelta = (baseVector == null) ? tsv.diff(new TimestampVector(new ArrayList<String>())) : tsv.diff(baseVector);
+			if (!rowDelta.isEmpty()){
+				delta.put(host, rowDelta);
+			}
+		}
+		return delta;
+	}
 
-		//iterate between the vectors on this timestampMatrix
-		for (String host : hosts) {
-			TimestampVector tsv = timestampMatrix.get(host);
-			if (minVector != null){
-				//merge current vector (tsv) with minVector to 
-				//obtain the minium timestamp of both of them
-				minVector.mergeMin(tsv);
-			}else{
-				//Initialization of the minVector with a clone of
-				//the current vector(tsv)
-				minVector = tsv.clone();
+	/**
+	 * @param delta (obtained with diff)
+	 * @return a new timestamp matrix equal to this one with the timestamps of delta replaced
+	 */
+	public TimestampMatrix patch(Map<String, List<Timestamp>> delta){
+		TimestampMatrix patched = clone();
+		for (Map.Entry<String, List<Timestamp>> entry : delta.entrySet()) {
+			TimestampVector tsv = patched.getTimestampVector(entry.getKey());
+			if (tsv == null){
+				tsv = new TimestampVector(new ArrayList<String>());
 			}
+			patched.update(entry.getKey(), tsv.patch(entry.getValue()));
 		}
-		return minVector;
+		return patched;
 	}
-	
+
 	/**
-	 * Clone a timestampMatrix
+	 * Clone a timestampMatrix (the clone shares the current version of this matrix)
 	 * @return copyTMatrix 
 	 */
 	public TimestampMatrix clone(){
-		Set<String> hosts = timestampMatrix.keySet();
-		ConcurrentHashMap<String, TimestampVector> copy = new ConcurrentHashMap<String, TimestampVector>();
-		
-		for (String host : hosts) {
-			TimestampVector copyVector = timestampMatrix.get(host).clone();
-			copy.put(host, copyVector);
-		}
-		
-		List<String> hostsList = new ArrayList<String> (hosts);
-		TimestampMatrix tsMat = new TimestampMatrix(hostsList);
-		tsMat.setTimestampMatrix(copy);
-		TimestampMatrix copyTMatrix = new TimestampMatrix();
+		return new TimestampMatrix(version);
+	}
 
-		for(String host: hosts) {
-			TimestampVector copyVector = timestampMatrix.get(host).clone();
-			copyTMatrix.timestampMatrix.put(host, copyVector);
+	/**
+	 * Hash of the rows of the matrix, computed without copying it. It does
+	 * not depend on the order of the nodes, so equal matrices have the same digest.
+	 * @return digest
+	 */
+	public long digest(){
+		Version v = version;
+		int n = v.nodes.size();
+		long digest = 0;
+		for (int r = 0; r < n; r++){
+			if (v.rows[r] == null){
+				continue;
+			}
+			long row = 0;
+			for (int c = 0; c < n; c++){
+				if (v.rows[r][c] != ABSENT){
+					row += TimestampVector.digest(v.nodes.getId(c), v.rows[r][c]);
+				}
+			}
+			digest += TimestampVector.digest(v.nodes.getId(r), row);
 		}
-
-		return copyTMatrix;
+		return digest;
 	}
 	
 	/**
@@ -151,17 +318,19 @@ public class TimestampMatrix implements Serializable{
         if ((getClass() != matrix.getClass())) 
             return false;
   
-        TimestampMatrix other = (TimestampMatrix) matrix;
+        TimestampMatrix copy = clone();
+        TimestampMatrix other = ((TimestampMatrix) matrix).clone();
 
-        if (this.timestampMatrix == other.timestampMatrix) 
-            return true;
-        if (this.timestampMatrix == null) 
-        	return false;
-        if (other.timestampMatrix == null) 
+        if (copy.version.nodes == other.version.nodes)
+            return Arrays.deepEquals(copy.version.rows, other.version.rows);
+        Set<String> hosts = copy.getNodes();
+        if (!hosts.equals(other.getNodes()))
             return false;
-        else 
-            return this.timestampMatrix.equals(other.timestampMatrix);
-        
+        for (String host : hosts){
+            if (!copy.getTimestampVector(host).equals(other.getTimestampVector(host)))
+                return false;
+        }
+        return true;
     }
 
 	
@@ -169,16 +338,196 @@ public class TimestampMatrix implements Serializable{
 	 * toString
 	 */
 	@Override
-	public synchronized String toString() {
-		String all="";
-		if(timestampMatrix==null){
-			return all;
+	public String toString() {
+		Version v = version;
+		StringBuilder all = new StringBuilder();
+		for (int r = 0; r < v.rows.length; r++){
+			if (v.rows[r] != null)
+				all.append(v.nodes.getId(r)).append(":   ").append(toVector(v.nodes, v.rows[r])).append("\n");
+		}
+		return all.toString();
+	}
+
+	/**
+	 * Serialization
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ConcurrentHashMap<String, TimestampVector> map = new ConcurrentHashMap<String, TimestampVector>();
+		TimestampMatrix copy = clone();
+		for (String host : copy.getNodes()){
+			map.put(host, copy.getTimestampVector(host));
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("timestampMatrix", map);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		ConcurrentHashMap<String, TimestampVector> map = (ConcurrentHashMap<String, TimestampVector>) fields.get("timestampMatrix", null);
+		setTimestampMatrix((map == null) ? new ConcurrentHashMap<String, TimestampVector>() : map);
+	}
+
+	/**
+	 * Immutable contents of a matrix
+	 */
+	private static final class Version {
+		private final ParticipantIndex nodes;
+		// rows[r] == null: node r has no timestamp vector
+		private final long[][] rows;
+		private final long[] columnMin;
+		private final int[] columnMinCount;
+		// changes each time the minimum of a column changes
+		private final long minVersion;
+
+		/**
+		 * empty matrix
+		 */
+		Version(ParticipantIndex nodes){
+			this(nodes, new long[nodes.size()][], new long[nodes.size()], new int[nodes.size()], 0);
+			Arrays.fill(columnMin, ABSENT);
+		}
+
+		Version(ParticipantIndex nodes, long[][] rows, long[] columnMin, int[] columnMinCount, long minVersion){
+			this.nodes = nodes;
+			this.rows = rows;
+			this.columnMin = columnMin;
+			this.columnMinCount = columnMinCount;
+			this.minVersion = minVersion;
 		}
-		for(Enumeration<String> en=timestampMatrix.keys(); en.hasMoreElements();){
-			String name=en.nextElement();
-			if(timestampMatrix.get(name)!=null)
-				all+=name+":   "+timestampMatrix.get(name)+"\n";
+	}
+
+	/**
+	 * Builds a new version of a matrix from the current one. Rows are copied
+	 * the first time one of their cells is modified.
+	 */
+	private static final class Editor {
+		private ParticipantIndex nodes;
+		private long[][] rows;
+		private boolean[] copied;
+		private long[] columnMin;
+		private int[] columnMinCount;
+		private long minVersion;
+
+		Editor(Version version){
+			nodes = version.nodes;
+			rows = version.rows.clone();
+			copied = new boolean[rows.length];
+			columnMin = version.columnMin.clone();
+			columnMinCount = version.columnMinCount.clone();
+			minVersion = version.minVersion;
+		}
+
+		Version publish(){
+			return new Version(nodes, rows, columnMin, columnMinCount, minVersion);
+		}
+
+		void setRow(String node, TimestampVector tsVector){
+			if (nodes.indexOf(node) < 0 || tsVector.getParticipantIndex() != nodes){
+				List<String> ids = new ArrayList<String>(tsVector.getParticipantIndex().getIds());
+				ids.add(node);
+				extendTo(ids);
+			}
+			int r = nodes.indexOf(node);
+			long[] values = tsVector.arrangedAs(nodes, ABSENT);
+			if (rows[r] == null){
+				long[] row = new long[nodes.size()];
+				Arrays.fill(row, ABSENT);
+				rows[r] = row;
+				copied[r] = true;
+			}
+			for (int c = 0; c < values.length; c++){
+				setCell(r, c, values[c]);
+			}
+		}
+
+		/**
+		 * Sets a cell, keeping the minimum of its column
+		 * @param r: row
+		 * @param c: column
+		 * @param value
+		 */
+		void setCell(int r, int c, long value){
+			long old = rows[r][c];
+			if (value == old)
+				return;
+			if (!copied[r]){
+				rows[r] = rows[r].clone();
+				copied[r] = true;
+			}
+			rows[r][c] = value;
+			long min = columnMin[c];
+			if (value < min){
+				columnMin[c] = value;
+				columnMinCount[c] = 1;
+				minVersion++;
+			} else if (value == min){
+				columnMinCount[c]++;
+			} else if (old == min && --columnMinCount[c] == 0){
+				recomputeColumn(c);
+				minVersion++;
+			}
+		}
+
+		void recomputeColumn(int c){
+			long min = ABSENT;
+			int count = 0;
+			for (long[] row : rows){
+				if (row == null)
+					continue;
+				if (row[c] < min){
+					min = row[c];
+					count = 1;
+				} else if (row[c] == min){
+					count++;
+				}
+			}
+			columnMin[c] = min;
+			columnMinCount[c] = count;
+		}
+
+		void recomputeColumns(){
+			for (int c = 0; c < columnMin.length; c++){
+				recomputeColumn(c);
+			}
+			minVersion++;
+		}
+
+		/**
+		 * Adds to the participant index of the matrix the nodes in ids
+		 * @param ids
+		 */
+		void extendTo(Collection<String> ids){
+			Set<String> all = new LinkedHashSet<String>(nodes.getIds());
+			all.addAll(ids);
+			ParticipantIndex extended = ParticipantIndex.of(all);
+			if (extended == nodes)
+				return;
+			int n = nodes.size();
+			int m = extended.size();
+			int[] positions = new int[n];
+			for (int i = 0; i < n; i++){
+				positions[i] = extended.indexOf(nodes.getId(i));
+			}
+			long[][] extendedRows = new long[m][];
+			for (int r = 0; r < n; r++){
+				if (rows[r] == null)
+					continue;
+				long[] row = new long[m];
+				Arrays.fill(row, ABSENT);
+				for (int c = 0; c < n; c++){
+					row[positions[c]] = rows[r][c];
+				}
+				extendedRows[positions[r]] = row;
+			}
+			nodes = extended;
+			rows = extendedRows;
+			copied = new boolean[m];
+			Arrays.fill(copied, true);
+			columnMin = new long[m];
+			columnMinCount = new int[m];
+			recomputeColumns();
 		}
-		return all;
 	}
 }
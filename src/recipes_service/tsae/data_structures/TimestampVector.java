@@ -20,10 +20,14 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -37,48 +41,136 @@ import java.util.concurrent.ConcurrentHashMap;
 public class TimestampVector implements Serializable{	
 
 	private static final long serialVersionUID = -765026247959198886L;
+
+	/**
+	 * The serialized form is kept as a ConcurrentHashMap from node id to
+	 * Timestamp, so that vectors can be exchanged with (and read from
+	 * files written by) previous versions.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("timestampVector", ConcurrentHashMap.class)
+	};
+
 	/**
 	 * This class stores a summary of the timestamps seen by a node.
-	 * For each node, stores the timestamp of the last received operation.
+	 * For each node, stores the sequence number of the last received operation.
+	 * Sequence numbers are stored in an array, in the position that the
+	 * (shared) participant index assigns to each node.
+	 * 
+	 * Index and array form a version of the vector: updates publish a new
+	 * version (writers are serialized by the lock of the vector) and readers
+	 * use the current one without locking. A clone shares the version of the
+	 * original vector, so it takes constant time. Once shared, a version is
+	 * immutable; until then, updateTimestamp changes its single entry in place
+	 * (instead of copying the whole array for each operation received).
 	 */
-	
-	private ConcurrentHashMap<String, Timestamp> timestampVector= new ConcurrentHashMap<String, Timestamp>();
+	private transient volatile Version version;
 
 	public TimestampVector (List<String> participants){
+		this(ParticipantIndex.of(participants));
+	}
+
+	public TimestampVector (ParticipantIndex participants){
 		// create and empty TimestampVector
-		for (Iterator<String> it = participants.iterator(); it.hasNext(); ){
-			String id = it.next();
-			// when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
-			timestampVector.put(id, new Timestamp(id, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER));
+		long[] seqnumbers = new long[participants.size()];
+		// when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
+		Arrays.fill(seqnumbers, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		this.version = new Version(participants, seqnumbers);
+	}
+
+	/**
+	 * @param participants
+	 * @param seqnumbers (must not be modified afterwards)
+	 */
+	TimestampVector (ParticipantIndex participants, long[] seqnumbers){
+		// seqnumbers may be shared with the caller (e.g. a row of a matrix)
+		this.version = new Version(participants, seqnumbers);
+		this.version.shared = true;
+	}
+
+	private TimestampVector (Version version){
+		this.version = version;
+	}
+
+	/**
+	 * Builds a vector in time proportional to its size
+	 * (instead of one update, that copies the vector, per participant)
+	 * @param participants
+	 * @param seqnumbers: sequence number of each participant, in the same order
+	 * @return a vector with the sequence numbers of the participants
+	 */
+	public static TimestampVector of(List<String> participants, long[] seqnumbers){
+		ParticipantIndex index = ParticipantIndex.of(participants);
+		long[] values = new long[index.size()];
+		Arrays.fill(values, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		for (int i = 0; i < seqnumbers.length; i++){
+			values[index.indexOf(participants.get(i))] = seqnumbers[i];
 		}
+		return new TimestampVector(index, values);
 	}
 	
 	/**
-	 * Get concurrenthashmap
-	 * @return hashMap
+	 * @return a map from node id to timestamp with the contents of this vector
+	 * (a copy: changes to the map are not reflected in the vector)
 	 */
 	public ConcurrentHashMap<String, Timestamp> getTimestampVector() {
-		return timestampVector;
+		Version v = version;
+		ConcurrentHashMap<String, Timestamp> map = new ConcurrentHashMap<String, Timestamp>();
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			map.put(v.participants.getId(i), new Timestamp(v.participants.getId(i), v.seqnumbers[i]));
+		}
+		return map;
 	}
 	
 	/**
-	 * Set concurrenthashmap
+	 * Set the contents of the vector from a map from node id to timestamp
 	 * @param timestampVector
 	 */
-	public void setTimestampVector(ConcurrentHashMap<String, Timestamp> timestampVector) {
-		this.timestampVector = timestampVector;
+	public synchronized void setTimestampVector(ConcurrentHashMap<String, Timestamp> timestampVector) {
+		ParticipantIndex index = ParticipantIndex.of(timestampVector.keySet());
+		long[] values = new long[index.size()];
+		for (int i = 0; i < values.length; i++){
+			values[i] = timestampVector.get(index.getId(i)).getSeqnumber();
+		}
+		version = new Version(index, values);
+	}
+
+	/**
+	 * @return the participant index of this vector
+	 */
+	public ParticipantIndex getParticipantIndex(){
+		return version.participants;
 	}
 
+	/**
+	 * @param index: position of a node in the participant index
+	 * @return sequence number of the last timestamp of the node
+	 */
+	public long getSeqnumber(int index){
+		return version.seqnumbers[index];
+	}
 
 	/**
 	 * Updates the timestamp vector with a new timestamp. 
 	 * @param timestamp
 	 */
 	public synchronized void updateTimestamp(Timestamp timestamp){
-		String host= timestamp.getHostid();
-		
-		if (timestamp != null)
-			timestampVector.replace(host, timestamp);
+		if (timestamp == null)
+			return;
+		Version v = version;
+		int i = v.participants.indexOf(timestamp.getHostid());
+		if (i >= 0 && v.seqnumbers[i] != timestamp.getSeqnumber()){
+			if (v.shared){
+				long[] seqnumbers = v.seqnumbers.clone();
+				seqnumbers[i] = timestamp.getSeqnumber();
+				version = new Version(v.participants, seqnumbers);
+			} else {
+				// no clone holds this version: a reader sees either the old or the new entry
+				v.seqnumbers[i] = timestamp.getSeqnumber();
+				// published again, so that readers see the new entry
+				version = v;
+			}
+		}
 	}
 	
 	/**
@@ -86,22 +178,22 @@ public class TimestampVector implements Serializable{
 	 * @param tsVector (a timestamp vector)
 	 */
 	public synchronized void updateMax(TimestampVector tsVector){
-		if( tsVector != null ){
-			Set<String> hosts = this.timestampVector.keySet();
-		
-			
-			//iterate over the keys (host) of the hashmap to update if it is necessary,
-			//its timestamp to be maximum
-			for (String host : hosts) {
-				Timestamp max = tsVector.timestampVector.get(host);
-				
-				if( max != null ) {
-					//replace if the timestampVector is higher than the current
-					if ( this.timestampVector.get(host).compare(max) < 0 ) { 
-						timestampVector.replace(host, max);
-					}
+		if( tsVector == null )
+			return;
+		Version v = version;
+		// nodes not present in tsVector are not updated
+		long[] other = tsVector.arrangedAs(v.participants, Long.MIN_VALUE);
+		long[] seqnumbers = null;
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			if (other[i] > v.seqnumbers[i]){
+				if (seqnumbers == null){
+					seqnumbers = v.seqnumbers.clone();
 				}
-			}	
+				seqnumbers[i] = other[i];
+			}
+		}
+		if (seqnumbers != null){
+			version = new Version(v.participants, seqnumbers);
 		}
 	}
 	
@@ -113,46 +205,130 @@ public class TimestampVector implements Serializable{
 	 *  @param tsVector (timestamp vector)
 	 */
 	public synchronized void mergeMin(TimestampVector tsVector){
-		if( tsVector != null ) {
-			Set<String> hosts = tsVector.timestampVector.keySet();
-			Timestamp min = null;
-			
-			//iterate over the keys (host) of the hashmap to update if it is necessary,
-			//its timestamp to be minimum
-			for (String host : hosts) {
-				min = tsVector.timestampVector.get(host);
-
-				if( this.timestampVector.get(host) != null ) {
-					//replace if the timestampVector is lower than the current
-					if ( min.compare(this.timestampVector.get(host)) < 0) {
-						timestampVector.replace(host, min);
-					}
-				} else {
-					timestampVector.put(host, min);
+		if( tsVector == null )
+			return;
+		Version v = version;
+		ParticipantIndex otherParticipants = tsVector.getParticipantIndex();
+		if (otherParticipants != v.participants){
+			// nodes only present in tsVector are added
+			v = v.extendTo(otherParticipants);
+		}
+		// nodes not present in tsVector are not updated
+		long[] other = tsVector.arrangedAs(v.participants, Long.MAX_VALUE);
+		long[] seqnumbers = null;
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			if (other[i] < v.seqnumbers[i]){
+				if (seqnumbers == null){
+					seqnumbers = v.seqnumbers.clone();
 				}
+				seqnumbers[i] = other[i];
 			}
 		}
+		version = (seqnumbers == null) ? v : new Version(v.participants, seqnumbers);
 	}
-	
+
 	/**
-	 * clone TimestampVector
+	 * Number of operations included in this vector and not in tsVector
+	 * (sum, for each node, of how far tsVector is behind this vector).
+	 * Nodes not present in tsVector count all their operations.
+	 * @param tsVector (timestamp vector)
+	 * @return number of operations tsVector is missing
 	 */
-	public TimestampVector clone(){
-		
-		Set<String> hosts = timestampVector.keySet();
-		ConcurrentHashMap<String, Timestamp> copy = new ConcurrentHashMap<String, Timestamp>();
-		
-		for (String host : hosts) {
-			copy.put(host, timestampVector.get(host));
+	public long lag(TimestampVector tsVector){
+		Version v = version;
+		long[] other = tsVector.arrangedAs(v.participants, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		long lag = 0;
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			// sequence numbers start at 0: the null timestamp is one before the first operation
+			long behind = Math.max(v.seqnumbers[i], -1) - Math.max(other[i], -1);
+			if (behind > 0){
+				lag += behind;
+			}
 		}
-		
-		List<String> hostsList = new ArrayList<String> (hosts);
-		TimestampVector tsVec = new TimestampVector(hostsList);
-		tsVec.setTimestampVector(copy);
-		
-		return tsVec;
+		return lag;
+	}
+
+	/**
+	 * Returns the sequence numbers of this vector arranged according to index.
+	 * When index is the participant index of this vector, the array of its
+	 * current version is returned (no copy).
+	 * @param index
+	 * @param missing: value for the nodes of index not present in this vector
+	 * @return sequence numbers (must not be modified)
+	 */
+	long[] arrangedAs(ParticipantIndex index, long missing){
+		return version.arrangedAs(index, missing);
+	}
+
+	/**
+	 * @param base
+	 * @return the timestamps of this vector that are different from (or not present in) base
+	 */
+	public List<Timestamp> diff(TimestampVector base){
+		Version v = version;
+		long[] baseSeqnumbers = base.arrangedAs(v.participants, Long.MIN_VALUE);
+		List<Timestamp> delta = new ArrayList<Timestamp>();
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			if (v.seqnumbers[i] != baseSeqnumbers[i]){
+				delta.add(new Timestamp(v.participants.getId(i), v.seqnumbers[i]));
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * @param delta (obtained with diff)
+	 * @return a new timestamp vector equal to this one with the timestamps of delta replaced
+	 */
+	public TimestampVector patch(List<Timestamp> delta){
+		List<String> ids = new ArrayList<String>();
+		for (Timestamp timestamp : delta){
+			ids.add(timestamp.getHostid());
+		}
+		Version extended = version.extendTo(ParticipantIndex.of(ids));
+		// the array is copied once for the whole delta
+		long[] seqnumbers = extended.seqnumbers.clone();
+		for (Timestamp timestamp : delta){
+			seqnumbers[extended.participants.indexOf(timestamp.getHostid())] = timestamp.getSeqnumber();
+		}
+		return new TimestampVector(extended.participants, seqnumbers);
 	}
 	
+	/**
+	 * clone TimestampVector (the clone shares the current version of this vector,
+	 * that is not modified any more)
+	 */
+	public synchronized TimestampVector clone(){
+		Version v = version;
+		v.shared = true;
+		return new TimestampVector(v);
+	}
+	
+	/**
+	 * Hash of the timestamps in the vector. It does not depend on the order
+	 * of the nodes, so equal vectors have the same digest.
+	 * @return digest
+	 */
+	public long digest(){
+		Version v = version;
+		long digest = 0;
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			digest += digest(v.participants.getId(i), v.seqnumbers[i]);
+		}
+		return digest;
+	}
+
+	/**
+	 * @return hash of the entry (node, value) of a vector (or matrix)
+	 */
+	static long digest(String node, long value){
+		// splitmix64 finalizer
+		long z = node.hashCode() * 0x9E3779B97F4A7C15L + value;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
 	/**
 	 * equals
 	 */
@@ -164,37 +340,104 @@ public class TimestampVector implements Serializable{
 		if (getClass() != tsVector.getClass())
 			return false;
 		
-		TimestampVector other = (TimestampVector) tsVector;
-
-		if (this.timestampVector == other.timestampVector)
-			return true;
-		if(this.timestampVector == null)
-			return false;
-		if(other.timestampVector == null)
+		Version v = version;
+		Version other = ((TimestampVector) tsVector).version;
+		if (v.participants == other.participants)
+			return Arrays.equals(v.seqnumbers, other.seqnumbers);
+		if (v.participants.size() != other.participants.size())
 			return false;
-        else 
-            return this.timestampVector.equals(other.timestampVector);
+		return Arrays.equals(v.seqnumbers, other.arrangedAs(v.participants, Long.MIN_VALUE));
 	}
 
 	/**
-	 * toString
+	 * hashCode (consistent with equals: it does not depend on the order of the nodes)
 	 */
 	@Override
-	public synchronized String toString() {
-		String all="";
-		if(timestampVector==null){
-			return all;
+	public int hashCode() {
+		Version v = version;
+		int hash = 0;
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			hash += v.participants.getId(i).hashCode() ^ Long.hashCode(v.seqnumbers[i]);
 		}
-		for(Enumeration<String> en=timestampVector.keys(); en.hasMoreElements();){
-			String name=en.nextElement();
-			if(timestampVector.get(name)!=null)
-				all+=timestampVector.get(name)+"\n";
+		return hash;
+	}
+
+	/**
+	 * toString
+	 */
+	@Override
+	public String toString() {
+		Version v = version;
+		StringBuilder all = new StringBuilder();
+		for (int i = 0; i < v.seqnumbers.length; i++){
+			all.append(v.participants.getId(i)).append(":   ").append(v.seqnumbers[i]).append("\n");
 		}
-		return all;
+		return all.toString();
 	}
 
 	public Timestamp getLast(String node1) {
-		return this.timestampVector.get(node1);
-		
+		Version v = version;
+		int i = v.participants.indexOf(node1);
+		if (i < 0)
+			return null;
+		return new Timestamp(node1, v.seqnumbers[i]);
+	}
+
+	/**
+	 * Serialization
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("timestampVector", getTimestampVector());
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		ConcurrentHashMap<String, Timestamp> map = (ConcurrentHashMap<String, Timestamp>) fields.get("timestampVector", null);
+		setTimestampVector((map == null) ? new ConcurrentHashMap<String, Timestamp>() : map);
+	}
+
+	/**
+	 * Contents of a vector: participant index and sequence numbers
+	 */
+	private static final class Version {
+		private final ParticipantIndex participants;
+		private final long[] seqnumbers;
+		// true once the version is shared with a clone (or its array with another
+		// structure): from then on it is not modified (accessed holding the lock of the vector)
+		private boolean shared = false;
+
+		Version(ParticipantIndex participants, long[] seqnumbers){
+			this.participants = participants;
+			this.seqnumbers = seqnumbers;
+		}
+
+		long[] arrangedAs(ParticipantIndex index, long missing){
+			if (participants == index && seqnumbers.length == index.size()){
+				return seqnumbers;
+			}
+			long[] arranged = new long[index.size()];
+			for (int i = 0; i < arranged.length; i++){
+				int j = participants.indexOf(index.getId(i));
+				arranged[i] = (j >= 0 && j < seqnumbers.length) ? seqnumbers[j] : missing;
+			}
+			return arranged;
+		}
+
+		/**
+		 * @param other
+		 * @return a version that also includes the nodes of other (with Long.MAX_VALUE)
+		 */
+		Version extendTo(ParticipantIndex other){
+			Set<String> ids = new LinkedHashSet<String>(participants.getIds());
+			ids.addAll(other.getIds());
+			ParticipantIndex extended = ParticipantIndex.of(ids);
+			if (extended == participants){
+				return this;
+			}
+			return new Version(extended, arrangedAs(extended, Long.MAX_VALUE));
+		}
 	}
 }
@@ -0,0 +1,108 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with exponential buckets: bucket i counts the
+ * values (in microseconds) lower than 2^i and not lower than 2^(i-1); the
+ * last one, the values from about 36 minutes on. Percentiles are estimated
+ * as the upper bound of their bucket.
+ * 
+ * Values are recorded without locking.
+ */
+public class Histogram {
+	private static final int BUCKETS = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos: duration (nanoseconds)
+	 */
+	public void record(long nanos){
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.increment();
+		sum.add(micros);
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros)){
+			// retry: another thread has updated the maximum
+		}
+	}
+
+	public long getCount(){
+		return count.sum();
+	}
+
+	/**
+	 * @return mean (milliseconds)
+	 */
+	public double getMean(){
+		long n = count.sum();
+		return (n == 0) ? 0 : sum.sum() / 1000.0 / n;
+	}
+
+	/**
+	 * @return maximum (milliseconds)
+	 */
+	public double getMax(){
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * @param percentile (between 0 and 100)
+	 * @return upper bound of the bucket of the percentile (milliseconds)
+	 */
+	public double getPercentile(double percentile){
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++){
+			counts[i] = buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++){
+			seen += counts[i];
+			if (seen >= rank){
+				// (maximum if it is lower than the bound)
+				return Math.min(((1L << i) - 1) / 1000.0, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public String toString(){
+		return String.format(Locale.ROOT, "n=%d mean=%.1fms p50=%.1fms p99=%.1fms max=%.1fms",
+				getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+	}
+}
@@ -0,0 +1,361 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import recipes_service.ServerData;
+import recipes_service.tsae.data_structures.Timestamp;
+
+/**
+ * Metrics of the TSAE sessions of a server: sessions with each partner
+ * (and their failures), duration of the sessions, operations and bytes
+ * exchanged, and time waiting for the lock of serverData. Log size and
+ * purge lag of each host are computed when they are requested.
+ * 
+ * Counters are updated without locking. They can be read through JMX
+ * (once registered) and in a line (snapshot) that can be logged
+ * periodically.
+ */
+public class TSAEMetrics implements TSAEMetricsMBean {
+	// partner of served sessions whose requests don't carry the id of
+	// their sender (only requests of delta exchange carry it)
+	private static final String UNKNOWN_PARTNER = "unknown";
+
+	private final ServerData serverData;
+	private ObjectName name = null;
+
+	private final Map<String, Partner> partners = new ConcurrentHashMap<String, Partner>();
+	private final Histogram latency = new Histogram();
+	private final Histogram servedLatency = new Histogram();
+	private final LongAdder operationsSent = new LongAdder();
+	private final LongAdder operationsReceived = new LongAdder();
+	private final LongAdder snapshotsSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder lockWait = new LongAdder();
+
+	public TSAEMetrics(ServerData serverData){
+		this.serverData = serverData;
+	}
+
+	/**
+	 * @param partnerId: partner of the session (null if not known yet)
+	 * @param originator: true for sessions started by this server,
+	 * false for sessions served to partners
+	 * @return session to record its result
+	 */
+	public Session startSession(String partnerId, boolean originator){
+		return new Session(partnerId, originator);
+	}
+
+	public void operationsSent(int operations){
+		operationsSent.add(operations);
+	}
+
+	public void operationsReceived(int operations){
+		operationsReceived.add(operations);
+	}
+
+	public void snapshotSent(){
+		snapshotsSent.increment();
+	}
+
+	/**
+	 * To be called once the lock of serverData is held
+	 * @param start: System.nanoTime() when the lock was requested
+	 */
+	public void lockAcquired(long start){
+		lockWait.add(System.nanoTime() - start);
+	}
+
+	/**
+	 * A TSAE session (started or served by this server)
+	 */
+	public class Session {
+		private final long start = System.nanoTime();
+		private final boolean originator;
+		private String partnerId;
+
+		private Session(String partnerId, boolean originator){
+			this.partnerId = partnerId;
+			this.originator = originator;
+		}
+
+		public void setPartner(String partnerId){
+			this.partnerId = partnerId;
+		}
+
+		/**
+		 * Records the result of the session
+		 * @param ok: true if the session ended normally
+		 * @param error: exception that interrupted the session (null if none)
+		 * @param bytesRead
+		 * @param bytesWritten
+		 */
+		public void finish(boolean ok, Exception error, long bytesRead, long bytesWritten){
+			(originator ? latency : servedLatency).record(System.nanoTime() - start);
+			bytesReceived.add(bytesRead);
+			bytesSent.add(bytesWritten);
+			Partner partner = partner(partnerId == null ? UNKNOWN_PARTNER : partnerId);
+			(originator ? partner.sessions : partner.served).increment();
+			if (!ok){
+				(originator ? partner.failed : partner.failedServed).increment();
+				if (error != null){
+					partner.lastError = error.toString();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sessions with a partner
+	 */
+	private static class Partner {
+		private final LongAdder sessions = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final LongAdder served = new LongAdder();
+		private final LongAdder failedServed = new LongAdder();
+		private volatile String lastError = null;
+
+		public String toString(){
+			return "sessions=" + sessions.sum() + " failed=" + failed.sum()
+					+ " served=" + served.sum() + " failedServed=" + failedServed.sum()
+					+ (lastError == null ? "" : " lastError=" + lastError);
+		}
+	}
+
+	private Partner partner(String partnerId){
+		Partner partner = partners.get(partnerId);
+		if (partner == null){
+			Partner created = new Partner();
+			partner = partners.putIfAbsent(partnerId, created);
+			if (partner == null){
+				partner = created;
+			}
+		}
+		return partner;
+	}
+
+	// ******************************
+	// *** JMX
+	// ******************************
+
+	/**
+	 * Registers the metrics in the platform MBean server
+	 * (as recipes_service:type=TSAEMetrics,server=<id of the server>)
+	 */
+	public synchronized void register(){
+		try {
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("recipes_service:type=TSAEMetrics,server=" + ObjectName.quote(serverData.getId()));
+			mbeanServer.registerMBean(this, name);
+		} catch (JMException e) {
+			System.err.println("TSAEMetrics: unable to register in JMX: " + e);
+			name = null;
+		}
+	}
+
+	public synchronized void unregister(){
+		if (name != null){
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				/* already unregistered */
+			}
+			name = null;
+		}
+	}
+
+	public long getSessions(){
+		long sessions = 0;
+		for (Partner partner : partners.values()){
+			sessions += partner.sessions.sum();
+		}
+		return sessions;
+	}
+
+	public long getFailedSessions(){
+		long failed = 0;
+		for (Partner partner : partners.values()){
+			failed += partner.failed.sum();
+		}
+		return failed;
+	}
+
+	public long getServedSessions(){
+		long served = 0;
+		for (Partner partner : partners.values()){
+			served += partner.served.sum();
+		}
+		return served;
+	}
+
+	public long getFailedServedSessions(){
+		long failed = 0;
+		for (Partner partner : partners.values()){
+			failed += partner.failedServed.sum();
+		}
+		return failed;
+	}
+
+	public double getSessionLatencyMean(){
+		return latency.getMean();
+	}
+
+	public double getSessionLatency50thPercentile(){
+		return latency.getPercentile(50);
+	}
+
+	public double getSessionLatency99thPercentile(){
+		return latency.getPercentile(99);
+	}
+
+	public double getSessionLatencyMax(){
+		return latency.getMax();
+	}
+
+	public double getServedSessionLatencyMean(){
+		return servedLatency.getMean();
+	}
+
+	public double getServedSessionLatency99thPercentile(){
+		return servedLatency.getPercentile(99);
+	}
+
+	public long getOperationsSent(){
+		return operationsSent.sum();
+	}
+
+	public long getOperationsReceived(){
+		return operationsReceived.sum();
+	}
+
+	public long getSnapshotsSent(){
+		return snapshotsSent.sum();
+	}
+
+	public long getBytesSent(){
+		return bytesSent.sum();
+	}
+
+	public long getBytesReceived(){
+		return bytesReceived.sum();
+	}
+
+	public double getLockWaitTime(){
+		return lockWait.sum() / 1000000.0;
+	}
+
+	public String[] getPartners(){
+		List<String> list = new ArrayList<String>();
+		for (Map.Entry<String, Partner> entry : new TreeMap<String, Partner>(partners).entrySet()){
+			list.add(entry.getKey() + ": " + entry.getValue());
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	public String[] getLogSizes(){
+		Map<String, Long> sizes = logSizes();
+		List<String> list = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : sizes.entrySet()){
+			list.add(entry.getKey() + ": " + entry.getValue());
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	public String[] getPurgeLag(){
+		Map<String, Long> lags = purgeLag();
+		List<String> list = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : lags.entrySet()){
+			list.add(entry.getKey() + ": " + entry.getValue());
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	/**
+	 * @return number of operations of each host in the log (empty if TSAE has not started)
+	 */
+	private Map<String, Long> logSizes(){
+		Map<String, Long> sizes = new TreeMap<String, Long>();
+		if (serverData.getSummary() != null){
+			for (String host : serverData.getSummary().getParticipantIndex().getIds()){
+				sizes.put(host, (long) serverData.getLog().size(host));
+			}
+		}
+		return sizes;
+	}
+
+	/**
+	 * @return for each host, number of operations received and not acknowledged
+	 * by all the servers (empty if TSAE has not started)
+	 */
+	private Map<String, Long> purgeLag(){
+		Map<String, Long> lags = new TreeMap<String, Long>();
+		if (serverData.getSummary() != null){
+			for (String host : serverData.getSummary().getParticipantIndex().getIds()){
+				Timestamp last = serverData.getSummary().getLast(host);
+				long received = (last == null) ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : last.getSeqnumber();
+				long acknowledged = serverData.getAck().minSeqnumber(host);
+				lags.put(host, Math.max(0, received - acknowledged));
+			}
+		}
+		return lags;
+	}
+
+	public String snapshot(){
+		long logSize = 0;
+		for (long size : logSizes().values()){
+			logSize += size;
+		}
+		long maxLag = 0;
+		for (long lag : purgeLag().values()){
+			maxLag = Math.max(maxLag, lag);
+		}
+		StringBuilder failing = new StringBuilder();
+		for (Map.Entry<String, Partner> entry : new TreeMap<String, Partner>(partners).entrySet()){
+			Partner partner = entry.getValue();
+			if (partner.failed.sum() + partner.failedServed.sum() > 0){
+				failing.append(failing.length() == 0 ? "" : ", ").append(entry.getKey()).append(" (")
+						.append(partner.failed.sum() + partner.failedServed.sum()).append(')');
+			}
+		}
+		return "sessions: " + getSessions() + " (failed " + getFailedSessions() + ") " + latency
+				+ " | served: " + getServedSessions() + " (failed " + getFailedServedSessions() + ") " + servedLatency
+				+ " | operations sent: " + getOperationsSent() + " received: " + getOperationsReceived()
+				+ " snapshots sent: " + getSnapshotsSent()
+				+ " | bytes sent: " + getBytesSent() + " received: " + getBytesReceived()
+				+ String.format(Locale.ROOT, " | lock wait: %.1fms", getLockWaitTime())
+				+ " | log size: " + logSize + " max purge lag: " + maxLag
+				+ (failing.length() == 0 ? "" : " | failing partners: " + failing);
+	}
+}
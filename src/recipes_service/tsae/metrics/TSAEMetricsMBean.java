@@ -0,0 +1,96 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.metrics;
+
+/**
+ * Management interface (JMX) of the metrics of the TSAE sessions of a server.
+ * Durations are in milliseconds.
+ */
+public interface TSAEMetricsMBean {
+
+	/**
+	 * @return TSAE sessions started by this server
+	 */
+	long getSessions();
+
+	/**
+	 * @return TSAE sessions started by this server that didn't end normally
+	 */
+	long getFailedSessions();
+
+	/**
+	 * @return TSAE sessions started by partners and served by this server
+	 */
+	long getServedSessions();
+
+	/**
+	 * @return TSAE sessions served by this server that didn't end normally
+	 */
+	long getFailedServedSessions();
+
+	double getSessionLatencyMean();
+
+	double getSessionLatency50thPercentile();
+
+	double getSessionLatency99thPercentile();
+
+	double getSessionLatencyMax();
+
+	double getServedSessionLatencyMean();
+
+	double getServedSessionLatency99thPercentile();
+
+	long getOperationsSent();
+
+	long getOperationsReceived();
+
+	long getSnapshotsSent();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	/**
+	 * @return time that sessions have waited for the lock of serverData
+	 */
+	double getLockWaitTime();
+
+	/**
+	 * @return for each partner: sessions, failed sessions and last error
+	 */
+	String[] getPartners();
+
+	/**
+	 * @return for each host: number of its operations in the log
+	 */
+	String[] getLogSizes();
+
+	/**
+	 * @return for each host: number of its operations received by this server
+	 * that are not known to be received by all the servers (they can't be purged)
+	 */
+	String[] getPurgeLag();
+
+	/**
+	 * @return all the metrics in a line
+	 */
+	String snapshot();
+}
@@ -0,0 +1,119 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.partners;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Favours the partners whose last-known summary is furthest from the local
+ * one: partners are chosen at random with a probability proportional to
+ * 1 + the number of operations that one of the two servers has and the other
+ * one lacks.
+ * 
+ * The last-known summary of a partner is its row in the ack matrix. As that
+ * row is the summary the partner had before the last session with it (it
+ * doesn't include the operations sent in that session), the local summary at
+ * the end of the last session with each partner is also kept: the operations
+ * in it are not counted as missing in the partner.
+ */
+public class DivergencePartnerSelector implements PartnerSelector {
+	private final ServerData serverData;
+	private final Random rnd;
+
+	// local summary at the end of the last session ended normally with each partner
+	private final Map<String, TimestampVector> lastSynced = new ConcurrentHashMap<String, TimestampVector>();
+
+	/**
+	 * @param serverData
+	 * @param rnd: source of the random choices
+	 */
+	public DivergencePartnerSelector(ServerData serverData, Random rnd){
+		this.serverData = serverData;
+		this.rnd = rnd;
+	}
+
+	public List<Host> select(Hosts hosts, int num) {
+		List<Host> partners = hosts.getPartners();
+		TimestampVector summary = serverData.getSummary();
+		TimestampMatrix ack = serverData.getAck();
+
+		// weight of each partner: 1 + estimated divergence
+		// (partners without a known summary weigh as much as the furthest one)
+		double[] weights = new double[partners.size()];
+		double maxWeight = 1;
+		for (int i = 0; i < partners.size(); i++){
+			TimestampVector known = ack.getTimestampVector(partners.get(i).getId());
+			if (known == null){
+				weights[i] = -1;
+				continue;
+			}
+			long missing = summary.lag(known);
+			TimestampVector synced = lastSynced.get(partners.get(i).getId());
+			if (synced != null){
+				missing = Math.min(missing, summary.lag(synced));
+			}
+			weights[i] = 1 + missing + known.lag(summary);
+			maxWeight = Math.max(maxWeight, weights[i]);
+		}
+		double total = 0;
+		for (int i = 0; i < weights.length; i++){
+			if (weights[i] < 0){
+				weights[i] = maxWeight;
+			}
+			total += weights[i];
+		}
+
+		// weighted random selection (without replacement)
+		List<Host> selected = new ArrayList<Host>();
+		while (selected.size() < Math.min(num, partners.size())){
+			double r = rnd.nextDouble() * total;
+			int chosen = -1;
+			for (int i = 0; i < weights.length; i++){
+				if (weights[i] == 0){
+					continue;
+				}
+				chosen = i;
+				if (r < weights[i]){
+					break;
+				}
+				r -= weights[i];
+			}
+			selected.add(partners.get(chosen));
+			total -= weights[chosen];
+			weights[chosen] = 0;
+		}
+		return selected;
+	}
+
+	public void synced(String partnerId) {
+		lastSynced.put(partnerId, serverData.getSummary().clone());
+	}
+}
@@ -0,0 +1,71 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.partners;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+
+/**
+ * Chooses the partners this server has not synchronized with for the
+ * longest time (partners never synchronized first; ties in random order).
+ * Every partner is chosen at least once every (participants - 1) / num rounds.
+ */
+public class LeastRecentPartnerSelector implements PartnerSelector {
+	// order of the last session ended normally with each partner
+	private final Map<String, Long> lastSynced = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong sessions = new AtomicLong();
+	private final Random rnd;
+
+	/**
+	 * @param rnd: source of the random order of ties
+	 */
+	public LeastRecentPartnerSelector(Random rnd){
+		this.rnd = rnd;
+	}
+
+	public List<Host> select(Hosts hosts, int num) {
+		List<Host> partners = hosts.getPartners();
+		Collections.shuffle(partners, rnd);
+		Collections.sort(partners, new Comparator<Host>(){
+			public int compare(Host h1, Host h2) {
+				return Long.compare(lastSynced(h1), lastSynced(h2));
+			}
+		});
+		return partners.subList(0, Math.max(0, Math.min(num, partners.size())));
+	}
+
+	public void synced(String partnerId) {
+		lastSynced.put(partnerId, sessions.incrementAndGet());
+	}
+
+	private long lastSynced(Host host){
+		Long order = lastSynced.get(host.getId());
+		return (order == null) ? 0 : order;
+	}
+}
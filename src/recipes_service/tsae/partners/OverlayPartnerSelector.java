@@ -0,0 +1,91 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.partners;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+
+/**
+ * Chooses partners at random among the neighbours of this server in an
+ * overlay: participants are placed in a ring (ordered by id) and each
+ * server is linked to the ones at distance 1, 2, 4, 8, ... in both
+ * directions. Each server has O(log n) neighbours and any operation reaches
+ * all servers in O(log n) hops, so in large groups sessions are spread in a
+ * structured way instead of repeating partners by chance.
+ */
+public class OverlayPartnerSelector implements PartnerSelector {
+	// neighbours of the local node (computed at the first selection: participants don't change)
+	private volatile List<Host> neighbours;
+	private final Random rnd;
+
+	/**
+	 * @param rnd: source of the random choices
+	 */
+	public OverlayPartnerSelector(Random rnd){
+		this.rnd = rnd;
+	}
+
+	public List<Host> select(Hosts hosts, int num) {
+		if (neighbours == null){
+			neighbours = neighbours(hosts);
+		}
+		List<Host> partners = new ArrayList<Host>(neighbours);
+		Collections.shuffle(partners, rnd);
+		return partners.subList(0, Math.max(0, Math.min(num, partners.size())));
+	}
+
+	public void synced(String partnerId) {
+	}
+
+	/**
+	 * @param hosts
+	 * @return the nodes at distance 1, 2, 4, ... from the local node (in
+	 * both directions) in the ring of participants ordered by id
+	 */
+	static List<Host> neighbours(Hosts hosts){
+		TreeMap<String, Host> byId = new TreeMap<String, Host>();
+		for (Host host : hosts.getPartners()){
+			byId.put(host.getId(), host);
+		}
+		byId.put(hosts.getLocalNode().getId(), hosts.getLocalNode());
+		List<Host> ring = new ArrayList<Host>(byId.values());
+		int n = ring.size();
+		int local = ring.indexOf(hosts.getLocalNode());
+
+		List<Host> neighbours = new ArrayList<Host>();
+		for (int distance = 1; distance < n; distance *= 2){
+			for (int position : new int[]{local + distance, local - distance}){
+				int index = ((position % n) + n) % n;
+				Host host = ring.get(index);
+				if (index != local && !neighbours.contains(host)){
+					neighbours.add(host);
+				}
+			}
+		}
+		return neighbours;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.partners;
+
+import java.util.List;
+
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+
+/**
+ * Strategy to choose the partners of the TSAE sessions started by a server
+ * each time its TSAE timer expires.
+ */
+public interface PartnerSelector {
+
+	/**
+	 * @param hosts: participants of the group
+	 * @param num: number of partners
+	 * @return at most num different partners (never the local node)
+	 */
+	List<Host> select(Hosts hosts, int num);
+
+	/**
+	 * Informs that a TSAE session started with partnerId has ended
+	 * normally: both servers have exchanged their operations.
+	 * @param partnerId
+	 */
+	void synced(String partnerId);
+}
@@ -0,0 +1,54 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.partners;
+
+import recipes_service.ServerData;
+
+/**
+ * Creates the PartnerSelector configured for a server (partnerSelection parameter).
+ */
+public final class PartnerSelectors {
+	public static final String RANDOM = "random";
+	public static final String DIVERGENCE = "divergence";
+	public static final String LEAST_RECENT = "leastRecent";
+	public static final String OVERLAY = "overlay";
+
+	private PartnerSelectors(){
+	}
+
+	/**
+	 * @param name: random, divergence, leastRecent or overlay (any other value: random)
+	 * @param serverData
+	 * @return a new PartnerSelector for serverData
+	 */
+	public static PartnerSelector create(String name, ServerData serverData){
+		if (DIVERGENCE.equals(name)){
+			return new DivergencePartnerSelector(serverData, serverData.getRandom());
+		}
+		if (LEAST_RECENT.equals(name)){
+			return new LeastRecentPartnerSelector(serverData.getRandom());
+		}
+		if (OVERLAY.equals(name)){
+			return new OverlayPartnerSelector(serverData.getRandom());
+		}
+		return new RandomPartnerSelector(serverData.getRandom());
+	}
+}
@@ -0,0 +1,48 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.partners;
+
+import java.util.List;
+import java.util.Random;
+
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+
+/**
+ * Chooses partners uniformly at random among all the participants.
+ */
+public class RandomPartnerSelector implements PartnerSelector {
+	private final Random rnd;
+
+	/**
+	 * @param rnd: source of the random choices
+	 */
+	public RandomPartnerSelector(Random rnd){
+		this.rnd = rnd;
+	}
+
+	public List<Host> select(Hosts hosts, int num) {
+		return hosts.getRandomPartners(num, rnd);
+	}
+
+	public void synced(String partnerId) {
+	}
+}
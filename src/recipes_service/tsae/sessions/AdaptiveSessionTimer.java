@@ -0,0 +1,131 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.Random;
+
+import recipes_service.ServerData;
+import util.Scheduler;
+
+/**
+ * Timer of TSAE sessions whose period adapts to the divergence observed.
+ * 
+ * Once all the sessions of a round have finished, the period is halved if
+ * the round made progress (any of its sessions sent or received operations)
+ * and doubled otherwise, always within [minPeriod, maxPeriod]. Only the
+ * sessions started by this server count: those served to partners are
+ * measured by the partners' own timers. The next round is scheduled after
+ * the period plus a random jitter (up to 20% of it, in both directions), so
+ * that servers backing off at the same time don't start their sessions
+ * together.
+ */
+public class AdaptiveSessionTimer implements Scheduler.Task, Runnable, TSAESessionOriginatorSide.RoundListener {
+	private static final double JITTER = 0.2;
+
+	private final ServerData serverData;
+	private final TSAESessionOriginatorSide sessions;
+	private final Scheduler scheduler;
+	private final long minPeriod;
+	private final long maxPeriod;
+	private final Random rnd;
+
+	// current period (milliseconds)
+	private volatile long period;
+
+	private Scheduler.Task next = null;
+	private boolean cancelled = false;
+
+	/**
+	 * @param serverData
+	 * @param sessions: originator side of the TSAE sessions of the server
+	 * @param scheduler
+	 * @param period: initial period (milliseconds)
+	 * @param minPeriod (milliseconds)
+	 * @param maxPeriod (milliseconds)
+	 */
+	public AdaptiveSessionTimer(ServerData serverData, TSAESessionOriginatorSide sessions, Scheduler scheduler,
+			long period, long minPeriod, long maxPeriod){
+		this.serverData = serverData;
+		this.sessions = sessions;
+		this.scheduler = scheduler;
+		this.rnd = serverData.getRandom();
+		this.minPeriod = Math.max(1, minPeriod);
+		this.maxPeriod = Math.max(this.minPeriod, maxPeriod);
+		this.period = Math.min(this.maxPeriod, Math.max(this.minPeriod, period));
+	}
+
+	/**
+	 * Schedules the first round of sessions
+	 * @param delay (milliseconds)
+	 */
+	public synchronized void start(long delay){
+		next = scheduler.schedule(this, delay);
+	}
+
+	public void run(){
+		synchronized (this){
+			if (cancelled){
+				return;
+			}
+		}
+		sessions.sessionRound(serverData.getNumberSessions(), this);
+	}
+
+	/**
+	 * Adapts the period to the progress of the round that has finished
+	 * and schedules the next one
+	 */
+	public void roundFinished(boolean progress){
+		adapt(progress);
+		synchronized (this){
+			if (!cancelled){
+				long jitter = (long) ((rnd.nextDouble() * 2 - 1) * JITTER * period);
+				next = scheduler.schedule(this, Math.max(1, period + jitter));
+			}
+		}
+	}
+
+	/**
+	 * Halves the period if the last round made progress; doubles it otherwise
+	 * @param progress
+	 */
+	private void adapt(boolean progress){
+		if (progress){
+			period = Math.max(minPeriod, period / 2);
+		} else {
+			period = Math.min(maxPeriod, period * 2);
+		}
+	}
+
+	/**
+	 * @return current period (milliseconds)
+	 */
+	public long getPeriod(){
+		return period;
+	}
+
+	public synchronized void cancel(){
+		cancelled = true;
+		if (next != null){
+			next.cancel();
+		}
+	}
+}
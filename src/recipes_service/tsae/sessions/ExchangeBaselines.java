@@ -0,0 +1,145 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import recipes_service.communication.MessageAErequest;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Remembers, for each partner, the last summary and ack exchanged with it,
+ * so that TSAE sessions can send only the entries that changed (delta exchange).
+ * 
+ * Every request sent gets a new version. A node includes in its requests the
+ * version of the partner's summary and ack it holds (heldVersion), and a delta
+ * is only sent when the partner has reported to hold the last version sent to it.
+ * Otherwise (no baseline yet, a previous session failed, ...) the full summary
+ * and ack are sent.
+ */
+public class ExchangeBaselines {
+	private final String localId;
+	private final boolean deltaExchange;
+	private long nextVersion = 0;
+	private final Map<String, PartnerBaseline> partners = new HashMap<String, PartnerBaseline>();
+
+	/**
+	 * @param localId: id of this server
+	 * @param deltaExchange: true to send deltas; false to always send the full structures
+	 */
+	public ExchangeBaselines(String localId, boolean deltaExchange){
+		this.localId = localId;
+		this.deltaExchange = deltaExchange;
+	}
+
+	/**
+	 * Creates the request to send summary and ack to partner.
+	 * ack should not be modified after calling this method (summary is copied,
+	 * as sessions also store it in the local ack).
+	 * @param partner
+	 * @param summary
+	 * @param ack
+	 * @return request
+	 */
+	public synchronized MessageAErequest createRequest(String partner, TimestampVector summary, TimestampMatrix ack){
+		if (!deltaExchange || partner == null){
+			// the sender is identified, but the request is not a baseline for deltas (no version)
+			return new MessageAErequest(localId, MessageAErequest.NO_VERSION, MessageAErequest.NO_VERSION, summary, ack);
+		}
+		PartnerBaseline baseline = getBaseline(partner);
+		long version = nextVersion++;
+		MessageAErequest request;
+		if (baseline.sentSummary != null && baseline.heldByPartner == baseline.sentVersion){
+			request = new MessageAErequest(localId, version, baseline.receivedVersion, baseline.sentVersion,
+					summary.diff(baseline.sentSummary), ack.diff(baseline.sentAck));
+		} else {
+			request = new MessageAErequest(localId, version, baseline.receivedVersion, summary, ack);
+		}
+		baseline.sentVersion = version;
+		baseline.sentSummary = summary.clone();
+		baseline.sentAck = ack;
+		return request;
+	}
+
+	/**
+	 * Obtains the full summary and ack of a received request and
+	 * remembers them as baseline for next deltas received from its sender.
+	 * @param request
+	 * @return a request that carries the full summary and ack, or
+	 * null if it is a delta relative to a version that is not held
+	 */
+	public synchronized MessageAErequest resolve(MessageAErequest request){
+		if (request.getSenderId() == null || request.getVersion() == MessageAErequest.NO_VERSION){
+			return request.isDelta() ? null : request;
+		}
+		PartnerBaseline baseline = getBaseline(request.getSenderId());
+		MessageAErequest full = request;
+		if (request.isDelta()){
+			if (baseline.receivedSummary == null || baseline.receivedVersion != request.getBaseVersion()){
+				return null;
+			}
+			full = new MessageAErequest(request.getSenderId(), request.getVersion(), request.getHeldVersion(),
+					baseline.receivedSummary.patch(request.getSummaryDelta()),
+					baseline.receivedAck.patch(request.getAckDelta()));
+		}
+		if (full.getAck() != null){
+			baseline.receivedVersion = full.getVersion();
+			baseline.receivedSummary = full.getSummary();
+			baseline.receivedAck = full.getAck();
+		}
+		baseline.heldByPartner = request.getHeldVersion();
+		return full;
+	}
+
+	/**
+	 * Forgets what partner is known to hold: next request to partner will be a full one
+	 * @param partner
+	 */
+	public synchronized void reset(String partner){
+		partners.remove(partner);
+	}
+
+	private PartnerBaseline getBaseline(String partner){
+		PartnerBaseline baseline = partners.get(partner);
+		if (baseline == null){
+			baseline = new PartnerBaseline();
+			partners.put(partner, baseline);
+		}
+		return baseline;
+	}
+
+	/**
+	 * Last summary and ack exchanged with a partner, in each direction
+	 */
+	private static class PartnerBaseline{
+		long sentVersion = MessageAErequest.NO_VERSION;
+		TimestampVector sentSummary;
+		TimestampMatrix sentAck;
+		// version of our summary and ack that the partner has reported to hold
+		long heldByPartner = MessageAErequest.NO_VERSION;
+
+		long receivedVersion = MessageAErequest.NO_VERSION;
+		TimestampVector receivedSummary;
+		TimestampMatrix receivedAck;
+	}
+}
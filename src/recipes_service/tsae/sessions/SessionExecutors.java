@@ -0,0 +1,112 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executors that run each TSAE session in its own thread.
+ * 
+ * When the JVM supports virtual threads (Java 21 or later) sessions are run
+ * in virtual threads; otherwise in (daemon) platform threads, created when
+ * needed and reused while idle. Executors of sessions limit the number of
+ * platform threads (as the pool of sessions from partners does).
+ */
+public final class SessionExecutors {
+
+	private SessionExecutors(){
+	}
+
+	/**
+	 * @param name: name of the threads (platform threads only)
+	 * @return an executor that runs each task in a new virtual thread if
+	 * they are supported; an executor that runs each task in an idle or
+	 * new platform thread otherwise
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(final String name){
+		ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+		if (virtualThreads != null){
+			return virtualThreads;
+		}
+		return Executors.newCachedThreadPool(daemonThreads(name));
+	}
+
+	/**
+	 * @param name: name of the threads (platform threads only)
+	 * @param maxThreads: maximum number of platform threads (tasks wait for
+	 * a free one)
+	 * @return an executor that runs each task in a new virtual thread if
+	 * they are supported; an executor that runs each task in one of at most
+	 * maxThreads platform threads otherwise
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String name, int maxThreads){
+		ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+		if (virtualThreads != null){
+			return virtualThreads;
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), daemonThreads(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * @return true if the JVM supports virtual threads
+	 */
+	public static boolean virtualThreadsSupported(){
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return an executor that runs each task in a new virtual thread
+	 * (null if the JVM doesn't support them)
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor(){
+		try {
+			// looked up by reflection: the code must compile and run on older JVMs
+			Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtualThreads.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name){
+		return new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
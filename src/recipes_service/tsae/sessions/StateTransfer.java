@@ -0,0 +1,212 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import communication.ObjectOutputStream_DS;
+import recipes_service.ServerData;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageEndTSAE;
+import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.communication.MessageSnapshot;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Transfer of the operations a partner misses in a TSAE session (both sides).
+ * 
+ * Usually they are sent from the log (grouped in frames of several operations).
+ * When the partner is far behind (it misses more than snapshotThreshold
+ * operations) or the log no longer has some of the operations it misses
+ * (they have been purged), a chunked snapshot of the recipes is sent instead,
+ * followed by the operations received after the snapshot (log tail).
+ * 
+ * In pipelined sessions the operations are sent by a writer thread while
+ * the session thread receives the ones sent by the partner.
+ */
+class StateTransfer {
+
+	// writer threads of pipelined sessions
+	private static final ExecutorService writers = SessionExecutors.newThreadPerTaskExecutor("TSAEWriterThread");
+
+	/**
+	 * @param serverData
+	 * @param partnerSummary: summary of the partner
+	 * @param localSummary: summary of this server at the beginning of the session
+	 * @return messages to send to the partner
+	 */
+	static List<Message> messages(ServerData serverData, TimestampVector partnerSummary, TimestampVector localSummary){
+		int threshold = serverData.getSnapshotThreshold();
+		if (threshold <= 0 || localSummary.lag(partnerSummary) <= threshold){
+			List<Operation> newLogs = serverData.getLog().listNewer(partnerSummary);
+			// checked after listing the operations: the log may be truncated meanwhile
+			// (by a snapshot installed in another session)
+			if (serverData.getLog().containsNewer(partnerSummary)){
+				serverData.getMetrics().operationsSent(newLogs.size());
+				return MessageOperationBatch.frames(newLogs, serverData.getOperationsPerBatch(), serverData.getBytesPerBatch());
+			}
+		}
+		ServerData.Snapshot state = serverData.snapshot();
+		List<Message> messages = MessageSnapshot.frames(state.getRecipes(), state.getSummary(),
+				Math.max(serverData.getOperationsPerBatch(), 1), serverData.getBytesPerBatch());
+		List<Operation> tail = serverData.getLog().listNewer(state.getSummary());
+		serverData.getMetrics().snapshotSent();
+		serverData.getMetrics().operationsSent(tail.size());
+		messages.addAll(MessageOperationBatch.frames(tail, serverData.getOperationsPerBatch(), serverData.getBytesPerBatch()));
+		return messages;
+	}
+
+	/**
+	 * Sends to the partner, in a writer thread, the message first (if any),
+	 * the operations it misses and an "end of TSAE session" message
+	 * @param out: output stream of the session channel
+	 * @param first: message to send before the operations (null for none)
+	 * @param serverData
+	 * @param partnerSummary: summary of the partner
+	 * @param localSummary: summary of this server at the beginning of the session
+	 * @return pending result of the sending (see await)
+	 */
+	static Future<Void> sendConcurrently(final ObjectOutputStream_DS out, final Message first, final ServerData serverData,
+			final TimestampVector partnerSummary, final TimestampVector localSummary){
+		return writers.submit(new Callable<Void>(){
+			public Void call() throws IOException {
+				if (first != null){
+					out.writeObject(first);
+				}
+				for (Message frame : messages(serverData, partnerSummary, localSummary)) {
+					out.writeObject(frame);
+				}
+				out.writeObject(new MessageEndTSAE());
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Waits until a sending started with sendConcurrently finishes
+	 * @param sending
+	 * @throws IOException if the messages could not be sent
+	 */
+	static void await(Future<Void> sending) throws IOException{
+		try {
+			sending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while sending operations");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Operations (and snapshot) received from a partner, executed
+	 * once the session has finished or, in streaming apply mode,
+	 * as soon as each frame is received
+	 */
+	static class Received {
+		private final ServerData serverData;
+		private final boolean streaming;
+		private List<Operation> operations = new ArrayList<Operation>();
+		private List<Recipe> snapshotRecipes = null;
+		private TimestampVector snapshotSummary = null;
+
+		Received(ServerData serverData){
+			this.serverData = serverData;
+			this.streaming = serverData.getStreamingApply();
+		}
+
+		/**
+		 * @param msg
+		 * @return true if msg carries operations (or part of a snapshot), false otherwise
+		 */
+		boolean add(Message msg){
+			switch (msg.type()){
+			case OPERATION:
+				received(Collections.singletonList(((MessageOperation) msg).getOperation()));
+				return true;
+			case OPERATION_BATCH:
+				received(((MessageOperationBatch) msg).getOperations());
+				return true;
+			case SNAPSHOT:
+				MessageSnapshot chunk = (MessageSnapshot) msg;
+				if (snapshotRecipes == null){
+					snapshotRecipes = new ArrayList<Recipe>();
+				}
+				snapshotRecipes.addAll(chunk.getRecipes());
+				if (chunk.isLast()){
+					snapshotSummary = chunk.getSummary();
+					if (streaming){
+						// the log tail comes after the snapshot: install it before executing it
+						installSnapshot();
+					}
+				}
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Installs the snapshot (if a complete one has been received) and executes the operations
+		 * not executed yet
+		 */
+		void apply(){
+			installSnapshot();
+			// operations are executed concurrently with other sessions
+			// (only the log segments of their hosts are locked)
+			serverData.execOperations(operations);
+			operations.clear();
+		}
+
+		private void received(List<Operation> ops){
+			serverData.getMetrics().operationsReceived(ops.size());
+			if (streaming){
+				// executed in arrival order: if the session is interrupted the operations
+				// of each host executed so far have no gaps (the log rejects the ones
+				// already held when they are received again in another session)
+				serverData.execOperations(ops);
+			} else {
+				operations.addAll(ops);
+			}
+		}
+
+		private void installSnapshot(){
+			if (snapshotSummary != null){
+				serverData.installSnapshot(snapshotRecipes, snapshotSummary);
+				snapshotRecipes = null;
+				snapshotSummary = null;
+			}
+		}
+	}
+}
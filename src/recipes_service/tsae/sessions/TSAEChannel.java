@@ -0,0 +1,278 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import communication.ObjectInputStream_DS;
+import communication.ObjectOutputStream_DS;
+import recipes_service.communication.Host;
+
+/**
+ * Connection between two servers used for TSAE sessions, with its streams.
+ * 
+ * A channel is kept open between sessions and is used by one session at a
+ * time. Sessions that don't end normally close it (both ends might not
+ * agree on the next message to read).
+ * 
+ * Bytes read and written through the connection are counted.
+ */
+public class TSAEChannel {
+	// maximum time (ms) to connect to a partner and to wait for each of its
+	// messages: sessions whose partner doesn't answer fail with an IOException
+	public static final int SESSION_TIMEOUT = 20000;
+
+	private final String partnerId;
+	private final Closeable connection;
+	private final ObjectInputStream_DS in;
+	private final ObjectOutputStream_DS out;
+	private final CountingInputStream inCounter;
+	private final CountingOutputStream outCounter;
+
+	// number of sessions started in the channel
+	private int sessions = 0;
+	private long lastUsed = System.currentTimeMillis();
+	// bytes read and written before the current session
+	private long sessionStartRead = 0;
+	private long sessionStartWritten = 0;
+
+	private TSAEChannel(String partnerId, Closeable connection, CountingInputStream inCounter, ObjectInputStream_DS in,
+			CountingOutputStream outCounter, ObjectOutputStream_DS out){
+		this.partnerId = partnerId;
+		this.connection = connection;
+		this.inCounter = inCounter;
+		this.in = in;
+		this.outCounter = outCounter;
+		this.out = out;
+	}
+
+	/**
+	 * Opens a channel to partner (originator side)
+	 * @param partner
+	 * @return channel
+	 * @throws IOException
+	 */
+	public static TSAEChannel connect(Host partner) throws IOException{
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(partner.getAddress(), partner.getPort()), SESSION_TIMEOUT);
+			socket.setSoTimeout(SESSION_TIMEOUT);
+			// messages are small and each one waits for the reply of the previous one
+			socket.setTcpNoDelay(true);
+			return connect(partner.getId(), socket.getInputStream(), socket.getOutputStream(), socket);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a channel to a partner over the streams of connection (originator side)
+	 * @param partnerId
+	 * @param inStream
+	 * @param outStream
+	 * @param connection: closed when the channel is closed
+	 * @return channel
+	 * @throws IOException
+	 */
+	public static TSAEChannel connect(String partnerId, InputStream inStream, OutputStream outStream, Closeable connection) throws IOException{
+		CountingInputStream inCounter = new CountingInputStream(inStream);
+		CountingOutputStream outCounter = new CountingOutputStream(outStream);
+		ObjectInputStream_DS in = new ObjectInputStream_DS(inCounter);
+		ObjectOutputStream_DS out = new ObjectOutputStream_DS(outCounter);
+		return new TSAEChannel(partnerId, connection, inCounter, in, outCounter, out);
+	}
+
+	/**
+	 * Creates the channel of a connection accepted from a partner (partner side)
+	 * @param socket
+	 * @return channel
+	 * @throws IOException
+	 */
+	public static TSAEChannel accept(Socket socket) throws IOException{
+		socket.setSoTimeout(SESSION_TIMEOUT);
+		socket.setTcpNoDelay(true);
+		return accept(socket.getInputStream(), socket.getOutputStream(), socket);
+	}
+
+	/**
+	 * Creates the channel of a connection from a partner over its streams (partner side)
+	 * @param inStream
+	 * @param outStream
+	 * @param connection: closed when the channel is closed
+	 * @return channel
+	 * @throws IOException
+	 */
+	public static TSAEChannel accept(InputStream inStream, OutputStream outStream, Closeable connection) throws IOException{
+		CountingInputStream inCounter = new CountingInputStream(inStream);
+		CountingOutputStream outCounter = new CountingOutputStream(outStream);
+		ObjectOutputStream_DS out = new ObjectOutputStream_DS(outCounter);
+		ObjectInputStream_DS in = new ObjectInputStream_DS(inCounter);
+		return new TSAEChannel(null, connection, inCounter, in, outCounter, out);
+	}
+
+	/**
+	 * @return id of the partner (null for channels accepted from partners)
+	 */
+	public String getPartnerId(){
+		return partnerId;
+	}
+
+	public ObjectInputStream_DS getInputStream(){
+		return in;
+	}
+
+	public ObjectOutputStream_DS getOutputStream(){
+		return out;
+	}
+
+	/**
+	 * To be called at the beginning of each session (before writing any message)
+	 * @throws IOException
+	 */
+	public void startSession() throws IOException{
+		sessions++;
+		sessionStartRead = inCounter.count;
+		sessionStartWritten = outCounter.count;
+		// objects written in previous sessions are not referenced
+		out.reset();
+	}
+
+	/**
+	 * To be called when a session ends normally and the channel is kept open
+	 */
+	public void sessionFinished(){
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return bytes read since the beginning of the current session
+	 * (including the ones buffered by the input stream but not read yet)
+	 */
+	public long getSessionBytesRead(){
+		return inCounter.count - sessionStartRead;
+	}
+
+	/**
+	 * @return bytes written since the beginning of the current session
+	 */
+	public long getSessionBytesWritten(){
+		return outCounter.count - sessionStartWritten;
+	}
+
+	/**
+	 * @return true if the channel was used by a previous session
+	 * (the partner might have closed it in the meanwhile)
+	 */
+	public boolean isReused(){
+		return sessions > 1;
+	}
+
+	/**
+	 * @param time (milliseconds)
+	 * @return true if the channel has not been used for more than time
+	 */
+	public boolean idleFor(long time){
+		return System.currentTimeMillis() - lastUsed > time;
+	}
+
+	/**
+	 * @return true if messages of the partner have already been received
+	 * (and possibly buffered by the input stream, where a selector doesn't see them)
+	 */
+	public boolean hasPendingInput(){
+		try {
+			return in.available() > 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public void close(){
+		try {
+			connection.close();
+		} catch (IOException e) {
+			/* should not be thrown */
+		}
+	}
+
+	/**
+	 * Input stream that counts the bytes read from the connection
+	 */
+	private static class CountingInputStream extends FilterInputStream{
+		private volatile long count = 0;
+
+		CountingInputStream(InputStream in){
+			super(in);
+		}
+
+		public int read() throws IOException{
+			int b = in.read();
+			if (b >= 0){
+				count++;
+			}
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			int n = in.read(b, off, len);
+			if (n > 0){
+				count += n;
+			}
+			return n;
+		}
+
+		public long skip(long n) throws IOException{
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	/**
+	 * Output stream that counts the bytes written to the connection
+	 * (written by one thread at a time)
+	 */
+	private static class CountingOutputStream extends FilterOutputStream{
+		private volatile long count = 0;
+
+		CountingOutputStream(OutputStream out){
+			super(out);
+		}
+
+		public void write(int b) throws IOException{
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException{
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
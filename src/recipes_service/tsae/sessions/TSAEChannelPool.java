@@ -0,0 +1,133 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import recipes_service.communication.Host;
+
+/**
+ * Channels to partners kept open between TSAE sessions.
+ * 
+ * Sessions take an idle channel to the partner (or open a new one) and give
+ * it back when they end normally. Channels not used for more than
+ * idleTimeout are closed, and all of them when the pool is closed. With
+ * idleTimeout <= 0 channels are not kept: each session opens its own
+ * connection.
+ * New channels are opened by the transport (TCP sockets if there is none).
+ */
+public class TSAEChannelPool {
+	private final long idleTimeout;
+	private final TSAETransport transport;
+	// idle channels of each partner (most recently used first)
+	private final Map<String, Deque<TSAEChannel>> idle = new HashMap<String, Deque<TSAEChannel>>();
+	// true once the pool is closed: channels given back are closed too
+	private boolean closed = false;
+
+	/**
+	 * @param idleTimeout (milliseconds)
+	 */
+	public TSAEChannelPool(long idleTimeout){
+		this(idleTimeout, null);
+	}
+
+	/**
+	 * @param idleTimeout (milliseconds)
+	 * @param transport: opens the connections to partners (null: TCP sockets)
+	 */
+	public TSAEChannelPool(long idleTimeout, TSAETransport transport){
+		this.idleTimeout = idleTimeout;
+		this.transport = transport;
+	}
+
+	/**
+	 * @param partner
+	 * @return an idle channel to partner, or a new one if there is none
+	 * @throws IOException
+	 */
+	public TSAEChannel acquire(Host partner) throws IOException{
+		synchronized (this){
+			evictIdle();
+			Deque<TSAEChannel> channels = idle.get(partner.getId());
+			if (channels != null && !channels.isEmpty()){
+				return channels.pop();
+			}
+		}
+		if (transport != null){
+			return transport.connect(partner);
+		}
+		return TSAEChannel.connect(partner);
+	}
+
+	/**
+	 * Gives back a channel whose session ended normally
+	 * @param channel
+	 */
+	public void release(TSAEChannel channel){
+		if (idleTimeout <= 0){
+			channel.close();
+			return;
+		}
+		channel.sessionFinished();
+		synchronized (this){
+			if (!closed){
+				evictIdle();
+				Deque<TSAEChannel> channels = idle.get(channel.getPartnerId());
+				if (channels == null){
+					channels = new ArrayDeque<TSAEChannel>();
+					idle.put(channel.getPartnerId(), channels);
+				}
+				channels.push(channel);
+				return;
+			}
+		}
+		channel.close();
+	}
+
+	/**
+	 * Closes the idle channels. Channels of the sessions in progress are
+	 * closed when they are given back
+	 */
+	public synchronized void close(){
+		closed = true;
+		for (Deque<TSAEChannel> channels : idle.values()){
+			while (!channels.isEmpty()){
+				channels.poll().close();
+			}
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Closes the channels that have been idle for more than idleTimeout
+	 */
+	private void evictIdle(){
+		for (Deque<TSAEChannel> channels : idle.values()){
+			while (!channels.isEmpty() && channels.peekLast().idleFor(idleTimeout)){
+				channels.pollLast().close();
+			}
+		}
+	}
+}
@@ -21,25 +21,27 @@
 package recipes_service.tsae.sessions;
 
 import java.io.IOException;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import recipes_service.ServerData;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
 import recipes_service.communication.Message;
 import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageDigest;
 import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
 import recipes_service.communication.MsgType;
-import recipes_service.data.AddOperation;
-import recipes_service.data.Operation;
-import recipes_service.data.OperationType;
-import recipes_service.data.RemoveOperation;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.metrics.TSAEMetrics;
 import communication.ObjectInputStream_DS;
 import communication.ObjectOutputStream_DS;
 
@@ -52,9 +54,18 @@ import communication.ObjectOutputStream_DS;
 public class TSAESessionOriginatorSide extends TimerTask {	
 	
 	private ServerData serverData;
+
+	// virtual threads mode: executor of the sessions and partners with a session in progress
+	private ExecutorService sessions = null;
+	private Set<String> partnersInSession = Collections.synchronizedSet(new HashSet<String>());
+
 	public TSAESessionOriginatorSide(ServerData serverData){
 		super();
 		this.serverData=serverData;		
+		if (serverData.getVirtualThreadSessions()){
+			// without virtual threads, at most maxPartnerSessions platform threads run sessions
+			sessions = SessionExecutors.newThreadPerTaskExecutor("TSAEOriginatorSideThread", Math.max(1, serverData.getMaxPartnerSessions()));
+		}
 	}
 	
 	/**
@@ -64,19 +75,116 @@ public class TSAESessionOriginatorSide extends TimerTask {
 		sessionWithN(serverData.getNumberSessions());
 	}
 
+	/**
+	 * Stops the TSAE sessions of the server: the timer task is cancelled and,
+	 * in virtual threads mode, no new sessions are started (those in progress
+	 * finish on their own)
+	 */
+	public void shutdown(){
+		cancel();
+		if (sessions != null){
+			sessions.shutdown();
+		}
+	}
+
 	/**
 	 * This method performs num TSAE sessions
-	 * with num random servers
+	 * with num servers (chosen by the partner selection strategy)
 	 * @param num
 	 */
 	public void sessionWithN(int num){
-		if(!SimulationData.getInstance().isConnected())
-			return;
-		List<Host> partnersTSAEsession= serverData.getRandomPartners(num);
-		Host n;
-		for(int i=0; i<partnersTSAEsession.size(); i++){
-			n=partnersTSAEsession.get(i);
-			sessionTSAE(n);
+		sessionRound(num, null);
+	}
+
+	/**
+	 * Listener of the rounds of TSAE sessions started by this server
+	 */
+	public interface RoundListener {
+		/**
+		 * Called once all the sessions of a round have finished
+		 * @param progress: true if any of them sent or received operations
+		 */
+		void roundFinished(boolean progress);
+	}
+
+	/**
+	 * Performs num TSAE sessions (as sessionWithN) and notifies listener
+	 * once all of them have finished: at the end of this call or, in virtual
+	 * threads mode, when the last session of the round ends
+	 * @param num
+	 * @param listener (null for none)
+	 */
+	public void sessionRound(int num, RoundListener listener){
+		Round round = new Round(listener);
+		if(SimulationData.getInstance().isConnected()){
+			List<Host> partnersTSAEsession= serverData.getPartners(num);
+			Host n;
+			for(int i=0; i<partnersTSAEsession.size(); i++){
+				n=partnersTSAEsession.get(i);
+				if (sessions == null){
+					round.sessionStarted();
+					round.sessionFinished(sessionTSAE(n));
+				} else {
+					sessionTSAEConcurrently(n, round);
+				}
+			}
+		}
+		round.sessionFinished(false);
+	}
+
+	/**
+	 * Sessions of a round that have not finished yet (plus one for the
+	 * round itself, until all of them have been started)
+	 */
+	private static class Round {
+		private final RoundListener listener;
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private volatile boolean progress = false;
+
+		Round(RoundListener listener){
+			this.listener = listener;
+		}
+
+		void sessionStarted(){
+			pending.incrementAndGet();
+		}
+
+		void sessionFinished(boolean progress){
+			if (progress){
+				this.progress = true;
+			}
+			if (pending.decrementAndGet() == 0 && listener != null){
+				listener.roundFinished(this.progress);
+			}
+		}
+	}
+
+	/**
+	 * Starts a TSAE session with the partner server n in its own thread
+	 * (without waiting for it to finish). If a session with n is
+	 * still in progress, no new session is started.
+	 * @param n
+	 * @param round: round the session belongs to
+	 */
+	private void sessionTSAEConcurrently(final Host n, final Round round){
+		if (n == null || !partnersInSession.add(n.getId())) return;
+		round.sessionStarted();
+		try {
+			sessions.execute(new Runnable(){
+				public void run() {
+					boolean progress = false;
+					try {
+						progress = sessionTSAE(n);
+					} finally {
+						partnersInSession.remove(n.getId());
+						round.sessionFinished(progress);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// sessions have been stopped
+			partnersInSession.remove(n.getId());
+			round.sessionFinished(false);
 		}
 	}
 	
@@ -84,54 +192,139 @@ public class TSAESessionOriginatorSide extends TimerTask {
 	 * This method perform a TSAE session
 	 * with the partner server n
 	 * @param n
+	 * @return true if the session sent or received operations
 	 */
-	private void sessionTSAE(Host n){
-		if (n == null) return;
+	private boolean sessionTSAE(Host n){
+		return sessionTSAE(n, true);
+	}
 
+	/**
+	 * This method perform a TSAE session
+	 * with the partner server n
+	 * @param n
+	 * @param retryFullExchange: if the partner rejects a delta of summary and ack,
+	 * repeat the session sending the full structures
+	 * @return true if the session sent or received operations
+	 */
+	private boolean sessionTSAE(Host n, boolean retryFullExchange){
+		if (n == null) return false;
+
+		TSAEMetrics.Session session = serverData.getMetrics().startSession(n.getId(), true);
+		TSAEChannel channel = null;
+		// true if the session ends normally and the channel can be used by another session
+		boolean reusable = false;
+		// true if the session is repeated (and its result recorded) by another call
+		boolean repeated = false;
+		// true if the session ends normally and has sent or received operations
+		boolean progress = false;
+		Exception error = null;
 		try {
-			Socket socket = new Socket(n.getAddress(), n.getPort());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
+			channel = serverData.getChannels().acquire(n);
+			ObjectInputStream_DS in = channel.getInputStream();
+			ObjectOutputStream_DS out = channel.getOutputStream();
 			
 			TimestampMatrix localAck;
             TimestampVector localSummary;
+			MessageAErequest request;
+			Message msg;
+			try {
+				channel.startSession();
+				if (serverData.getDigestHandshake() && serverData.getLog().isEmpty()){
+					// send the digest of the local state: if partner has the same one
+					// the session ends without exchanging summary, ack and operations.
+					// The digest doesn't include the ack: while the log has operations
+					// the ack is exchanged so that they can be purged
+					out.writeObject(new MessageDigest(serverData.getId(), serverData.digest()));
+					msg = (Message) in.readObject();
+					if (msg.type() == MsgType.END_TSAE){
+						reusable = true;
+						return false;
+					}
+				}
 
-			/** Initiate of the structures localAck and localSummary with the data of the server (serverData).
-			 * It must be synchronized because the data is been accessed concurrently and we want to avoid interferences 
-			 * between threads (for example, delete data or change it). 
-			 */
-            synchronized (serverData) {
-            	// Initiate localSummary with a copy of the summary in the serverData server.  
-                localSummary = serverData.getSummary().clone();
-                serverData.getAck().update(serverData.getId(), localSummary);
-                // Initiate localAck with a copy of the acknowledge vector in the serverData server. 
-                localAck = serverData.getAck().clone();
-            }
-            
-            // Send to partner: local's summary and ack
-			Message msg = new MessageAErequest(localSummary, localAck); 
-			out.writeObject(msg);
+				/** Initiate of the structures localAck and localSummary with the data of the server (serverData).
+				 * It must be synchronized because the data is been accessed concurrently and we want to avoid interferences 
+				 * between threads (for example, delete data or change it). 
+				 */
+	            long lockRequested = System.nanoTime();
+	            synchronized (serverData) {
+	            	serverData.getMetrics().lockAcquired(lockRequested);
+	            	// Initiate localSummary with a copy of the summary in the serverData server.  
+	                localSummary = serverData.getSummary().clone();
+	                serverData.getAck().update(serverData.getId(), localSummary);
+	                // Initiate localAck with a copy of the acknowledge vector in the serverData server. 
+	                localAck = serverData.getAck().clone();
+	            }
+	            
+	            // Send to partner: local's summary and ack
+	            // (only the entries changed since last exchange if delta exchange is activated)
+				request = serverData.getExchangeBaselines().createRequest(n.getId(), localSummary, localAck);
+				request.setPipelined(serverData.getPipelinedSessions());
+				out.writeObject(request);
+				msg = (Message) in.readObject();
+			} catch (IOException e) {
+				if (!channel.isReused()){
+					throw e;
+				}
+				// partner closed the channel while it was idle (disconnection, timeout, ...):
+				// repeat the session with a new connection
+				channel.close();
+				channel = null;
+				repeated = true;
+				return sessionTSAE(n, retryFullExchange);
+			}
 			
+			if (request.isPipelined() && msg.type() == MsgType.AE_REQUEST){
+				// partner has answered with its summary and ack:
+				// operations are sent and received at the same time
+				MessageAErequest msgAe = serverData.getExchangeBaselines().resolve((MessageAErequest) msg);
+				if (msgAe == null){
+					serverData.getExchangeBaselines().reset(n.getId());
+					return false;
+				}
+				Future<Void> sending = StateTransfer.sendConcurrently(out, null, serverData, msgAe.getSummary(), localSummary);
+				StateTransfer.Received received = new StateTransfer.Received(serverData);
+				msg = (Message) in.readObject();
+				while (received.add(msg)){
+					msg = (Message) in.readObject();
+				}
+				StateTransfer.await(sending);
+				if (msg.type() == MsgType.END_TSAE){
+					reusable = true;
+					progress = exchangedOperations(localSummary, msgAe.getSummary());
+					received.apply();
+					long lockRequested = System.nanoTime();
+					synchronized (serverData) {
+						serverData.getMetrics().lockAcquired(lockRequested);
+						serverData.getSummary().updateMax(msgAe.getSummary());
+						serverData.getAck().updateMax(msgAe.getAck());
+						serverData.purgeLog();
+					}
+				}
+				return progress;
+			}
+
 			// receive operations from partner
-			List <MessageOperation> listOperations = new ArrayList();
-			msg = (Message) in.readObject();
+			StateTransfer.Received received = new StateTransfer.Received(serverData);
 			
-			//if message is an operation add it to listOperations
-			while (msg.type() == MsgType.OPERATION){
-				listOperations.add((MessageOperation) msg); 
+			//if message is an operation (a batch of operations or a snapshot chunk) keep it
+			while (received.add(msg)){
 				msg = (Message) in.readObject();
 			}
 			
 			// receive partner's summary and ack
 			if (msg.type() == MsgType.AE_REQUEST){
 
-               MessageAErequest msgAe = (MessageAErequest) msg;
-               List<Operation> newLogs = serverData.getLog().listNewer(msgAe.getSummary());
-				
-              //send operations
-				 for (Operation op : newLogs) {
-	                    out.writeObject(new MessageOperation(op));
-	                }
+               MessageAErequest msgAe = serverData.getExchangeBaselines().resolve((MessageAErequest) msg);
+               if (msgAe == null){
+            	   // partner sent a delta relative to summary and ack that are not held
+            	   serverData.getExchangeBaselines().reset(n.getId());
+            	   return false;
+               }
+              //send operations (grouped in frames of several operations, or a snapshot and the log tail)
+				for (Message frame : StateTransfer.messages(serverData, msgAe.getSummary(), localSummary)) {
+					out.writeObject(frame);
+				}
 
 				// send and "end of TSAE session" message
 				msg = new MessageEndTSAE(); 
@@ -140,31 +333,57 @@ public class TSAESessionOriginatorSide extends TimerTask {
 				//receive message to inform about the ending of the TSAE session
 				msg = (Message) in.readObject();
 				if (msg.type() == MsgType.END_TSAE){
+					reusable = true;
+					progress = exchangedOperations(localSummary, msgAe.getSummary());
+					received.apply();
+					long lockRequested = System.nanoTime();
 					synchronized (serverData) {
-						for (MessageOperation op : listOperations) {
-	                        if (op.getOperation().getType() == OperationType.ADD) {
-	                            serverData.execOperation( (AddOperation) op.getOperation() );
-	                            
-	                        } else {
-	                            serverData.execOperation( (RemoveOperation) op.getOperation());
-	                        }
-	                    }
-						
+						serverData.getMetrics().lockAcquired(lockRequested);
 						//Update summary
 						serverData.getSummary().updateMax(msgAe.getSummary());
 	                    serverData.getAck().updateMax(msgAe.getAck());
-	                    serverData.getLog().purgeLog(serverData.getAck());
+	                    serverData.purgeLog();
 					}
 				}
-			}	
-			
-			socket.close();
+			} else if (msg.type() == MsgType.END_TSAE && retryFullExchange){
+				// partner does not hold the summary and ack our delta is relative to
+				serverData.getExchangeBaselines().reset(n.getId());
+				serverData.getChannels().release(channel);
+				channel = null;
+				repeated = true;
+				return sessionTSAE(n, false);
+			}
 			
 		}catch (IOException e) {
-			//e.printStackTrace();
+			error = e;
 		}catch (ClassNotFoundException e) {
-			//e.printStackTrace();
+			error = e;
+		}finally {
+			if (!repeated && reusable){
+				serverData.getPartnerSelector().synced(n.getId());
+			}
+			if (!repeated){
+				session.finish(reusable, error,
+						(channel == null) ? 0 : channel.getSessionBytesRead(),
+						(channel == null) ? 0 : channel.getSessionBytesWritten());
+			}
+			if (channel != null){
+				if (reusable){
+					serverData.getChannels().release(channel);
+				} else {
+					channel.close();
+				}
+			}
 		}
-	
+		return progress;
+	}
+
+	/**
+	 * @param localSummary: summary of this server at the beginning of the session
+	 * @param partnerSummary: summary of the partner
+	 * @return true if a session between both summaries sends or receives operations
+	 */
+	private static boolean exchangedOperations(TimestampVector localSummary, TimestampVector partnerSummary){
+		return localSummary.lag(partnerSummary) > 0 || partnerSummary.lag(localSummary) > 0;
 	}
 }
@@ -22,52 +22,78 @@ package recipes_service.tsae.sessions;
 
 
 import java.io.IOException;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Future;
 
 import communication.ObjectInputStream_DS;
 import communication.ObjectOutputStream_DS;
 import recipes_service.ServerData;
 import recipes_service.communication.Message;
 import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageDigest;
 import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
 import recipes_service.communication.MsgType;
-import recipes_service.data.AddOperation;
-import recipes_service.data.Operation;
-import recipes_service.data.OperationType;
-import recipes_service.data.RemoveOperation;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.metrics.TSAEMetrics;
 
 /**
  * @author Joan-Manuel Marques
  * December 2012
  *
  */
-public class TSAESessionPartnerSide extends Thread{
-	private Socket socket = null;
+public class TSAESessionPartnerSide{
+	private TSAEChannel channel = null;
 	private ServerData serverData = null;
 	
-	public TSAESessionPartnerSide(Socket socket, ServerData serverData) {
-		super("TSAEPartnerSideThread");
-		this.socket = socket;
+	public TSAESessionPartnerSide(TSAEChannel channel, ServerData serverData) {
+		this.channel = channel;
 		this.serverData = serverData;
 	}
 
-	public void run() {
-	
-		
+	/**
+	 * Runs a TSAE session started by a partner in channel
+	 * @return true if the session ended normally (channel can be used for another session)
+	 */
+	public boolean session() {
+		TSAEMetrics.Session session = serverData.getMetrics().startSession(null, false);
+		// false until the first message is received (the originator may close
+		// a channel kept open instead of starting a new session)
+		boolean started = false;
+		boolean ended = false;
+		Exception error = null;
 		try {
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
+			ObjectOutputStream_DS out = channel.getOutputStream();
+			ObjectInputStream_DS in = channel.getInputStream();
+			channel.startSession();
 
-			// receive originator's summary and ack
+			// receive originator's summary and ack (or the digest of its state)
 			 Message msg = (Message) in.readObject();
+			 started = true;
+
+			 if (msg.type() == MsgType.DIGEST){
+				 session.setPartner(((MessageDigest) msg).getSenderId());
+				 long localDigest = serverData.digest();
+				 if (localDigest == ((MessageDigest) msg).getDigest() && serverData.getLog().isEmpty()){
+					 // same state and nothing left to purge: nothing to exchange
+					 out.writeObject(new MessageEndTSAE());
+					 ended = true;
+					 return true;
+				 }
+				 out.writeObject(new MessageDigest(serverData.getId(), localDigest));
+				 msg = (Message) in.readObject();
+			 }
 			
 			 if (msg.type() == MsgType.AE_REQUEST){
-				 MessageAErequest msgAe = (MessageAErequest) msg;
+				 boolean pipelined = ((MessageAErequest) msg).isPipelined();
+				 session.setPartner(((MessageAErequest) msg).getSenderId());
+				 MessageAErequest msgAe = serverData.getExchangeBaselines().resolve((MessageAErequest) msg);
+				 if (msgAe == null){
+					 // delta relative to a summary and ack that are not held:
+					 // originator will repeat the session sending the full structures
+					 out.writeObject(new MessageEndTSAE());
+					 ended = true;
+					 return true;
+				 }
 
                TimestampMatrix localAck;
                TimestampVector localSummary;
@@ -76,7 +102,9 @@ public class TSAESessionPartnerSide extends Thread{
    			 * It must be synchronized because the data is been accessed concurrently and we want to avoid interferences 
    			 * between threads (for example, delete data or change it). 
    			 */
+               long lockRequested = System.nanoTime();
                synchronized (serverData) {
+            	   serverData.getMetrics().lockAcquired(lockRequested);
                	// Initiate localSummary with a copy of the summary in the serverData server.  
                    localSummary = serverData.getSummary().clone();
                    serverData.getAck().update(serverData.getId(), localSummary);
@@ -84,52 +112,61 @@ public class TSAESessionPartnerSide extends Thread{
                    localAck = serverData.getAck().clone();
                }
                
-			  // send operations
-               List<Operation> newLogs = serverData.getLog().listNewer(msgAe.getSummary());
-               for (Operation op : newLogs) {
-	              out.writeObject(new MessageOperation(op));
-	                }
+               MessageAErequest request = serverData.getExchangeBaselines().createRequest(msgAe.getSenderId(), localSummary, localAck);
+               Future<Void> sending = null;
+               if (pipelined){
+            	   // send local's summary and ack, operations and "end of TSAE session"
+            	   // while the operations from originator are received
+            	   sending = StateTransfer.sendConcurrently(out, request, serverData, msgAe.getSummary(), localSummary);
+               } else {
+			  // send operations (grouped in frames of several operations, or a snapshot and the log tail)
+	               for (Message frame : StateTransfer.messages(serverData, msgAe.getSummary(), localSummary)) {
+	            	   out.writeObject(frame);
+	               }
 
 			// send to originator: local's summary and ack
-				msg = new MessageAErequest(localSummary, localAck);
-	            out.writeObject(msg);
+			// (only the entries changed since last exchange if delta exchange is activated)
+		            out.writeObject(request);
+               }
 
 			// receive operations
-				List <MessageOperation> listOperations = new ArrayList();
+				StateTransfer.Received received = new StateTransfer.Received(serverData);
 	            msg = (Message) in.readObject();
 	            
-	            while (msg.type() == MsgType.OPERATION){
-	            	listOperations.add((MessageOperation) msg); 
+	            while (received.add(msg)){
 	            	msg = (Message) in.readObject();
 	            }
 				
 			// receive message to inform about the ending of the TSAE session
-	            if (msg.type() == MsgType.END_TSAE){
+	            ended = (msg.type() == MsgType.END_TSAE);
+	            if (sending != null){
+	            	StateTransfer.await(sending);
+	            } else if (ended){
 	            	// send and "end of TSAE session" 
 	            	msg = new MessageEndTSAE();
 	            	out.writeObject(msg);
 	            }
+	            received.apply();
+	            lockRequested = System.nanoTime();
 	            synchronized (serverData) {
-                    for (MessageOperation op : listOperations) {
-                        if (op.getOperation().getType() == OperationType.ADD) {
-                            serverData.execOperation( (AddOperation) op.getOperation() );
-                        } else {
-                        	  serverData.execOperation( (RemoveOperation) op.getOperation());
-                        }
-                    }
-					
+	            	serverData.getMetrics().lockAcquired(lockRequested);
 					//Update summary
 					serverData.getSummary().updateMax(msgAe.getSummary());
                     serverData.getAck().updateMax(msgAe.getAck());
-                    serverData.getLog().purgeLog(serverData.getAck());
+                    serverData.purgeLog();
             }
+	            return ended;
 		 }
-			socket.close();	
 			
 		}catch (IOException e) {
-			//e.printStackTrace();
+			error = e;
 		}catch (ClassNotFoundException e) {
-			//e.printStackTrace();
+			error = e;
+		}finally {
+			if (started){
+				session.finish(ended, error, channel.getSessionBytesRead(), channel.getSessionBytesWritten());
+			}
 		}
+		return false;
 	}
 }
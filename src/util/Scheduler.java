@@ -0,0 +1,57 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package util;
+
+/**
+ * Runs tasks periodically or after a delay.
+ * 
+ * TimerScheduler runs them in real time; a simulation can provide its own
+ * implementation to run them in virtual time.
+ */
+public interface Scheduler {
+
+	/**
+	 * Task scheduled in a Scheduler
+	 */
+	public interface Task {
+		/**
+		 * The task will not run again
+		 */
+		void cancel();
+	}
+
+	/**
+	 * Runs task after delay and then every period (fixed-rate execution)
+	 * @param task
+	 * @param delay (milliseconds)
+	 * @param period (milliseconds)
+	 * @return the scheduled task (to cancel it)
+	 */
+	Task scheduleAtFixedRate(Runnable task, long delay, long period);
+
+	/**
+	 * Runs task once after delay
+	 * @param task
+	 * @param delay (milliseconds)
+	 * @return the scheduled task (to cancel it)
+	 */
+	Task schedule(Runnable task, long delay);
+}
@@ -0,0 +1,64 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package util;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Scheduler that runs tasks in real time: each periodic task in its own
+ * java.util.Timer, and tasks run once in a timer shared by all of them
+ * (a daemon one: pending tasks don't keep the program running)
+ */
+public class TimerScheduler implements Scheduler {
+	private Timer timer = null;
+
+	public Task scheduleAtFixedRate(final Runnable task, long delay, long period){
+		final Timer timer = new Timer();
+		timer.scheduleAtFixedRate(new TimerTask(){
+			public void run() {
+				task.run();
+			}
+		}, delay, period);
+		return new Task(){
+			public void cancel() {
+				timer.cancel();
+			}
+		};
+	}
+
+	public synchronized Task schedule(final Runnable task, long delay){
+		if (timer == null){
+			timer = new Timer(true);
+		}
+		final TimerTask timerTask = new TimerTask(){
+			public void run() {
+				task.run();
+			}
+		};
+		timer.schedule(timerTask, delay);
+		return new Task(){
+			public void cancel() {
+				timerTask.cancel();
+			}
+		};
+	}
+}